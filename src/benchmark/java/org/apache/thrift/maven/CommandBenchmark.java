@@ -0,0 +1,82 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a {@code thrift} command line for large thrift paths, and naming the extraction
+ * directory of a jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int thriftPathElements;
+
+    private Thrift thrift;
+    private File thriftFile;
+    private ThriftCompileMojo mojo;
+    private String jarPath;
+
+    @Setup
+    public void createThriftPath() throws Exception {
+        final File root = Fixtures.createTempDirectory("thrift-command-benchmark");
+        final File outputDirectory = new File(root, "out");
+        outputDirectory.mkdirs();
+        final Thrift.Builder builder = new Thrift.Builder("thrift", outputDirectory);
+        for (int i = 0; i < thriftPathElements; i++) {
+            final File element = new File(root, "thrift-dependencies/" + Integer.toHexString(i * 7919) + "/idl");
+            element.mkdirs();
+            builder.addThriftPathElement(element);
+        }
+        final File sourceRoot = new File(root, "src/main/thrift");
+        Fixtures.createTree(sourceRoot, 1, "service", ".thrift");
+        builder.addThriftPathElement(sourceRoot);
+        thriftFile = new File(sourceRoot, "module0/package0/service0.thrift");
+        thrift = builder.setGenerator("java:hashcode").addThriftFile(thriftFile).build();
+
+        mojo = Fixtures.createMojo();
+        jarPath = new File(root, "repository/com/example/lib/1.0/lib-1.0.jar").getPath();
+    }
+
+    @Benchmark
+    public List<String> buildThriftCommand() {
+        return thrift.buildThriftCommand(thriftFile);
+    }
+
+    @Benchmark
+    public String truncatePath() throws Exception {
+        return mojo.truncatePath(jarPath);
+    }
+}
@@ -0,0 +1,90 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Measures building the thrift path from the dependency jars, for different numbers of jars and thrift files
+ * per jar. With {@code clean} every invocation extracts from scratch; otherwise the previous extraction is
+ * reused, as in a build without {@code mvn clean}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DependencyBenchmark {
+
+    @Param({"10", "100"})
+    public int jars;
+
+    @Param({"0", "5", "50"})
+    public int thriftFilesPerJar;
+
+    @Param({"true", "false"})
+    public boolean clean;
+
+    private ThriftCompileMojo mojo;
+    private File extractionDirectory;
+    private List<File> classpath;
+
+    @Setup(Level.Trial)
+    public void createJars() throws Exception {
+        final File root = Fixtures.createTempDirectory("thrift-dependency-benchmark");
+        final File repository = new File(root, "repository");
+        classpath = newArrayList();
+        for (int i = 0; i < jars; i++) {
+            final File jar = new File(repository, "com/example/lib" + i + "/1.0/lib" + i + "-1.0.jar");
+            jar.getParentFile().mkdirs();
+            Fixtures.createJar(jar, 200, thriftFilesPerJar);
+            classpath.add(jar);
+        }
+        extractionDirectory = new File(root, "thrift-dependencies");
+        mojo = Fixtures.createMojo();
+        Fixtures.setField(mojo, "buildStateDirectory", new File(root, "thrift-state"));
+    }
+
+    @Setup(Level.Invocation)
+    public void cleanExtraction() throws Exception {
+        if (clean && extractionDirectory.exists()) {
+            FileUtils.deleteDirectory(extractionDirectory);
+        }
+    }
+
+    @Benchmark
+    public Set<File> makeThriftPathFromJars() throws Exception {
+        return mojo.makeThriftPathFromJars(extractionDirectory, classpath);
+    }
+}
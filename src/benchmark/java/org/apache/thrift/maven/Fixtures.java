@@ -0,0 +1,121 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Creates the synthetic inputs used by the benchmarks.
+ */
+final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * @return A new, empty directory that is deleted when the JVM exits.
+     */
+    static File createTempDirectory(String name) throws IOException {
+        final File directory = File.createTempFile(name, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                try {
+                    FileUtils.deleteDirectory(directory);
+                } catch (IOException e) {
+                    // best effort
+                }
+            }
+        });
+        return directory;
+    }
+
+    /**
+     * Creates a compile mojo configured the way Maven would configure it by default. Dependency paths are
+     * hashed, so no local repository is needed.
+     */
+    static ThriftCompileMojo createMojo() throws Exception {
+        final ThriftCompileMojo mojo = new ThriftCompileMojo();
+        setField(mojo, "hashDependentPaths", true);
+        setField(mojo, "threads", 0);
+        setField(mojo, "generator", "java:hashcode");
+        return mojo;
+    }
+
+    static void setField(Object object, String name, Object value) throws Exception {
+        Class<?> type = object.getClass();
+        while (type != null) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(object, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    /**
+     * Writes a jar holding {@code classes} class entries and {@code thriftFiles} thrift entries.
+     */
+    static void createJar(File jar, int classes, int thriftFiles) throws IOException {
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            final byte[] classContent = new byte[2048];
+            for (int i = 0; i < classes; i++) {
+                out.putNextEntry(new JarEntry("com/example/generated/Type" + i + ".class"));
+                out.write(classContent);
+                out.closeEntry();
+            }
+            for (int i = 0; i < thriftFiles; i++) {
+                out.putNextEntry(new JarEntry("idl/" + jar.getName() + "/service" + i + ".thrift"));
+                out.write(("namespace java com.example.s" + i + "\nstruct S" + i + " {\n  1: string name\n}\n")
+                        .getBytes(Charsets.UTF_8));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes {@code count} files named {@code <prefix><n><suffix>}, spread over nested directories.
+     */
+    static void createTree(File root, int count, String prefix, String suffix) throws IOException {
+        for (int i = 0; i < count; i++) {
+            final File directory = new File(root, "module" + (i % 10) + "/package" + (i % 7));
+            directory.mkdirs();
+            FileUtils.fileWrite(new File(directory, prefix + i + suffix).getPath(), "UTF-8", "// " + i + "\n");
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scanning the source root with include and exclude patterns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SourceBenchmark {
+
+    @Param({"100", "1000"})
+    public int thriftFiles;
+
+    private ThriftCompileMojo mojo;
+    private File sourceRoot;
+
+    @Setup
+    public void createSources() throws Exception {
+        final File root = Fixtures.createTempDirectory("thrift-source-benchmark");
+        sourceRoot = new File(root, "src/main/thrift");
+        Fixtures.createTree(sourceRoot, thriftFiles, "service", ".thrift");
+        // files that the patterns must skip
+        Fixtures.createTree(new File(sourceRoot, "internal"), thriftFiles / 10, "internal", ".thrift");
+        Fixtures.createTree(sourceRoot, thriftFiles / 10, "README", ".md");
+
+        mojo = Fixtures.createMojo();
+        Fixtures.setField(mojo, "includes", ImmutableSet.of("**/*.thrift"));
+        Fixtures.setField(mojo, "excludes", ImmutableSet.of("**/internal/**", "**/*-test.thrift"));
+    }
+
+    @Benchmark
+    public ImmutableSet<File> findThriftFilesInDirectory() throws Exception {
+        return mojo.findThriftFilesInDirectory(sourceRoot);
+    }
+}
@@ -0,0 +1,61 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the staleness check ({@code checkStaleness}), which lists every generated file and reads its
+ * timestamp.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StalenessBenchmark {
+
+    @Param({"1000", "10000"})
+    public int generatedFiles;
+
+    private ThriftCompileMojo mojo;
+    private File outputDirectory;
+
+    @Setup
+    public void createGeneratedSources() throws Exception {
+        final File root = Fixtures.createTempDirectory("thrift-staleness-benchmark");
+        outputDirectory = new File(root, "generated-sources/thrift");
+        Fixtures.createTree(outputDirectory, generatedFiles, "Type", ".java");
+        mojo = Fixtures.createMojo();
+    }
+
+    @Benchmark
+    public long lastModified() throws Exception {
+        return mojo.scanGeneratedFiles(outputDirectory).getLastModified();
+    }
+}
@@ -0,0 +1,101 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.artifact.Artifact;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * The configuration shared by the mojos working on the main thrift sources, {@link ThriftCompileMojo} and
+ * {@link ThriftWatchMojo}.
+ */
+abstract class AbstractMainThriftMojo extends AbstractThriftMojo {
+
+    /**
+     * The source directories containing the sources to be compiled.
+     *
+     * @parameter default-value="${basedir}/src/main/thrift"
+     * @required
+     */
+    private File thriftSourceRoot;
+
+    /**
+     * The source directories to compile instead of {@code thriftSourceRoot}, each optionally with its own includes and
+     * excludes, see {@link SourceRoot}. They are compiled together and share the thrift path.
+     *
+     * @parameter
+     */
+    private SourceRoot[] thriftSourceRoots = new SourceRoot[]{};
+
+    /**
+     * This is the directory into which the {@code .java} will be created.
+     *
+     * @parameter default-value="${project.build.directory}/generated-sources/thrift"
+     * @required
+     */
+    private File outputDirectory;
+
+    @Override
+    protected List<Artifact> getDependencyArtifacts() {
+        // TODO(gak): maven-project needs generics
+        @SuppressWarnings("unchecked")
+        List<Artifact> compileArtifacts = project.getCompileArtifacts();
+        return compileArtifacts;
+    }
+
+    @Override
+    protected File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    @Override
+    protected File getThriftSourceRoot() {
+        return thriftSourceRoot;
+    }
+
+    @Override
+    protected SourceRoot[] getThriftSourceRoots() {
+        return thriftSourceRoots;
+    }
+
+    @Override
+    protected void attachFiles(ImmutableList<File> compileSourceRoots, ImmutableList<File> resourceDirectories) {
+        for (File compileSourceRoot : compileSourceRoots) {
+            project.addCompileSourceRoot(compileSourceRoot.getAbsolutePath());
+        }
+        for (File resourceDirectory : resourceDirectories) {
+            projectHelper.addResource(project, resourceDirectory.getAbsolutePath(),
+                    ImmutableList.of("**/*.thrift"), ImmutableList.of());
+        }
+    }
+
+    @Override
+    protected File getClassesDirectory() {
+        return new File(project.getBuild().getOutputDirectory());
+    }
+
+    @Override
+    protected String getCompilerExecution() {
+        return "default-compile";
+    }
+}
@@ -19,43 +19,78 @@ package org.apache.thrift.maven;
  * under the License.
  */
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
+import org.codehaus.plexus.util.Scanner;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.io.RawInputStreamFacade;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.sonatype.plexus.build.incremental.BuildContext;
 
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Objects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagate;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Lists.newLinkedList;
+import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.collect.Sets.newLinkedHashSet;
 import static java.lang.String.format;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 import static java.util.Arrays.asList;
-import static java.util.Collections.list;
 import static org.codehaus.plexus.util.FileUtils.cleanDirectory;
-import static org.codehaus.plexus.util.FileUtils.copyStreamToFile;
-import static org.codehaus.plexus.util.FileUtils.getFiles;
+import static org.codehaus.plexus.util.FileUtils.getFileNames;
 
 /**
  * Abstract Mojo implementation.
  * <p/>
- * This class is extended by {@link org.apache.thrift.maven.ThriftCompileMojo} and
+ * This class is extended by {@link org.apache.thrift.maven.AbstractMainThriftMojo} and
  * {@link org.apache.thrift.maven.ThriftTestCompileMojo} in order to override the specific configuration for
  * compiling the main or test classes respectively.
  *
@@ -69,6 +104,15 @@ abstract class AbstractThriftMojo extends AbstractMojo {
 
     private static final String DEFAULT_INCLUDES = "**/*" + THRIFT_FILE_SUFFIX;
 
+    /**
+     * The suffix of the index of the thrift files of the classpath directories, in the build state directory
+     * rather than in the extraction directory, which the {@link DependencyExtractor} may clean.
+     */
+    private static final String DIRECTORY_INDEX = ".directories";
+
+    private static final SourceScanner GENERATED_FILES =
+            new SourceScanner(ImmutableSet.of("**/*.java"), ImmutableSet.<String>of());
+
     /**
      * The current Maven project.
      *
@@ -86,6 +130,15 @@ abstract class AbstractThriftMojo extends AbstractMojo {
      */
     protected MavenProjectHelper projectHelper;
 
+    /**
+     * The build context of the IDE, which reports the files changed since the previous incremental build and
+     * is told about the files the plugin writes.
+     *
+     * @component
+     * @required
+     */
+    private BuildContext buildContext;
+
     /**
      * This is the path to the {@code thrift} executable. By default it will search the {@code $PATH}.
      *
@@ -94,29 +147,83 @@ abstract class AbstractThriftMojo extends AbstractMojo {
      */
     private String thriftExecutable;
 
+    /**
+     * The version the {@code thrift} executable must report, e.g. {@code 0.9.1}. When it reports another
+     * version the build fails before any dependency is extracted. By default any version is accepted.
+     *
+     * @parameter expression="${thrift.version}"
+     */
+    private String thriftVersion;
+
     /**
      * This string is passed to the {@code --gen} option of the {@code thrift} parameter. By default
      * it will generate Java output. The main reason for this option is to be able to add options
-     * to the Java generator - if you generate something else, you're on your own.
+     * to the Java generator - if you generate something else, you're on your own. Ignored when
+     * {@code generators} is set.
      *
      * @parameter default-value="java:hashcode"
      */
     private String generator;
 
+    /**
+     * The generators to run, each writing into its own output directory, see {@link GeneratorTarget}. The
+     * sources are discovered and the dependencies extracted once for all of them, and the {@code thrift}
+     * invocations of every generator are scheduled together. By default only {@code generator} runs,
+     * writing into the output directory.
+     *
+     * @parameter
+     */
+    private GeneratorTarget[] generators = new GeneratorTarget[]{};
+
     /**
      * @parameter
      */
     private File[] additionalThriftPathElements = new File[]{};
 
     /**
-     * Since {@code thrift} cannot access jars, thrift files in dependencies are extracted to this location
-     * and deleted on exit. This directory is always cleaned during execution.
+     * Since {@code thrift} cannot access jars, thrift files in dependencies are extracted to this location.
+     * Files extracted by a previous build are reused when their jar is unchanged, and deleted once their
+     * jar or entry is no longer on the classpath.
      *
      * @parameter expression="${project.build.directory}/thrift-dependencies"
      * @required
      */
     private File temporaryThriftFileDirectory;
 
+    /**
+     * Set this to {@code true} to extract dependency thrift files into a store shared by every build on
+     * this machine, instead of into {@code temporaryThriftFileDirectory}. Each jar is extracted once, keyed
+     * by its coordinates and checksum, identical files are hard linked, and the thrift path points directly
+     * into the store. The extracted files are read-only.
+     *
+     * @parameter expression="${thrift.useDependencyStore}" default-value="false"
+     */
+    private boolean useDependencyStore;
+
+    /**
+     * The location of the shared dependency store. By default a {@code thrift-store} directory next to
+     * the local repository is used.
+     *
+     * @parameter expression="${thrift.dependencyStore}"
+     */
+    private File dependencyStoreDirectory;
+
+    /**
+     * The size, in megabytes, above which the least recently used artifacts of the dependency store are
+     * evicted.
+     *
+     * @parameter expression="${thrift.dependencyStoreMaxSize}" default-value="512"
+     */
+    private long dependencyStoreMaxSize;
+
+    /**
+     * The build this execution belongs to, which scopes the compiler permits shared by its executions.
+     *
+     * @parameter expression="${session}"
+     * @readonly
+     */
+    private Object session;
+
     /**
      * This is the path to the local maven {@code repository}.
      *
@@ -137,6 +244,16 @@ abstract class AbstractThriftMojo extends AbstractMojo {
      */
     private boolean hashDependentPaths;
 
+    /**
+     * Set this to {@code true} to only extract the dependency thrift files that are reachable from the
+     * {@code include} statements of the compiled sources, and to only add the directories needed to
+     * resolve those includes to the thrift path. By default every thrift file found in a dependency is
+     * extracted and its directory is added to the thrift path.
+     *
+     * @parameter expression="${thrift.minimizeThriftPath}" default-value="false"
+     */
+    private boolean minimizeThriftPath;
+
     /**
      * @parameter
      */
@@ -157,47 +274,270 @@ abstract class AbstractThriftMojo extends AbstractMojo {
      */
     private boolean checkStaleness = false;
 
+    /**
+     * Set this to {@code true} to list the directories of the source root, and of the output directory when
+     * {@code checkStaleness} is set, concurrently. This speeds up the discovery of large trees.
+     *
+     * @parameter expression="${thrift.parallelDiscovery}" default-value="false"
+     */
+    private boolean parallelDiscovery;
+
+    private DependencyStore dependencyStore;
+
+    private boolean permitsConflictReported;
+
+    private ThriftCompiler compiler;
+
+    private SourceScanner sourceScanner;
+
+    private BuildReport report = new BuildReport();
+
+    private ImmutableList<GeneratorTarget> targets;
+
+    private GeneratedSourceNormalizer normalizer;
+
+    private ImmutableList<SourceRoot> sourceRoots;
+
+    /**
+     * The directories of the source roots that exist.
+     */
+    private ImmutableList<File> sourceDirectories;
+
+    /**
+     * The number of {@code thrift} processes to run concurrently. Each process writes into a
+     * private staging directory and the results are moved into the output directory once all
+     * files have compiled. By default one process is started per available processor; set this
+     * to {@code 1} to compile the files one at a time.
+     *
+     * @parameter expression="${thrift.threads}" default-value="0"
+     */
+    private int threads;
+
+    /**
+     * The maximum number of {@code thrift} processes run at the same time by all executions of this plugin in
+     * a build, e.g. by the modules of a parallel reactor build ({@code mvn -T}). Executions beyond this
+     * limit wait for a running process to finish. The first execution of the build determines the limit, and a
+     * warning is logged when a later execution configures another one. By default it is the number of
+     * available processors.
+     *
+     * @parameter expression="${thrift.maxConcurrentCompilers}" default-value="0"
+     */
+    private int maxConcurrentCompilers;
+
+    /**
+     * Set this to {@code true} to only recompile the thrift files that changed since the previous build,
+     * together with the files that (transitively) include them. Changes are detected using content hashes
+     * recorded in a build-state manifest, so resetting file timestamps does not trigger a rebuild.
+     * The files generated for each thrift file are recorded as well, so the outputs of a removed thrift file,
+     * and outputs a recompiled file no longer generates, are deleted. Changing the generator, the
+     * {@code thrift} binary or the thrift path causes a full build.
+     *
+     * @parameter expression="${thrift.incremental}" default-value="false"
+     */
+    private boolean incremental;
+
+    /**
+     * The directory holding the build-state manifests used by incremental compilation, and the duration of
+     * each file's previous compilation, which orders concurrent invocations longest first.
+     *
+     * @parameter default-value="${project.build.directory}/thrift-state"
+     * @required
+     */
+    private File buildStateDirectory;
+
+    /**
+     * Set this to {@code true} to keep the files in the output directory whose content did not change, so
+     * that their timestamps are preserved and downstream compilation can skip them. Instead of cleaning the
+     * output directory before every build, {@code thrift} generates into a staging directory and only the
+     * files it no longer generates are deleted.
+     *
+     * @parameter expression="${thrift.writeIfChanged}" default-value="false"
+     */
+    private boolean writeIfChanged;
+
+    /**
+     * Set this to {@code true} to start one {@code thrift -r} process per root file, i.e. per file that is
+     * not included by another compiled file, instead of one process per file. The files included by a root
+     * are generated together with it, so shared files are parsed once per root rather than once per file.
+     * Files that include thrift files from outside the source root are still compiled one at a time.
+     *
+     * @parameter expression="${thrift.recursive}" default-value="false"
+     */
+    private boolean recursive;
+
+    /**
+     * Set this to {@code true} to restore the generated sources from a local cache when a previous build
+     * compiled identical inputs: the same thrift files and included files, generator, {@code thrift} binary
+     * and plugin version. Otherwise the sources are compiled and added to the cache.
+     *
+     * @parameter expression="${thrift.buildCache}" default-value="false"
+     */
+    private boolean useBuildCache;
+
+    /**
+     * The location of the build cache. By default a {@code thrift-cache} directory next to the local
+     * repository is used.
+     *
+     * @parameter expression="${thrift.buildCacheDirectory}"
+     */
+    private File buildCacheDirectory;
+
+    /**
+     * The size, in megabytes, above which the least recently used entries of the build cache are evicted.
+     *
+     * @parameter expression="${thrift.buildCacheMaxSize}" default-value="512"
+     */
+    private long buildCacheMaxSize;
+
+    /**
+     * A build cache shared with other machines, consulted when the local build cache misses: a directory, e.g.
+     * an NFS mount, or an {@code http://} or {@code https://} URL serving {@code GET} and accepting {@code PUT}
+     * requests. Entries are keyed like the local build cache and verified against their SHA-256 checksum. When
+     * an entry is missing, corrupt or the cache cannot be reached, the sources are compiled locally.
+     *
+     * @parameter expression="${thrift.remoteBuildCache}"
+     */
+    private String remoteBuildCache;
+
+    /**
+     * Set this to {@code false} to only fetch from the remote build cache, e.g. on developer machines, and leave
+     * populating it to CI builds.
+     *
+     * @parameter expression="${thrift.remoteBuildCachePush}" default-value="true"
+     */
+    private boolean remoteBuildCachePush;
+
+    /**
+     * The connect and read timeout, in milliseconds, of requests to a remote build cache served over HTTP.
+     *
+     * @parameter expression="${thrift.remoteBuildCacheTimeout}" default-value="10000"
+     */
+    private int remoteBuildCacheTimeout;
+
+    /**
+     * The version of this plugin, part of the build cache key.
+     *
+     * @parameter default-value="${plugin.version}"
+     * @readonly
+     */
+    private String pluginVersion;
+
+    /**
+     * Set this to {@code true} to write a report of the time spent in each phase of the build and in each
+     * {@code thrift} invocation, together with counters such as the number of jars scanned, the bytes
+     * extracted, the files skipped and the build cache hits. A one line summary is always logged.
+     *
+     * @parameter expression="${thrift.report}" default-value="false"
+     */
+    private boolean writeReport;
+
+    /**
+     * The format of the report: {@code json} for a plain JSON document, or {@code trace} for the Chrome trace
+     * event format, which can be loaded into {@code chrome://tracing} to display a timeline.
+     *
+     * @parameter expression="${thrift.reportFormat}" default-value="json"
+     */
+    private String reportFormat;
+
+    /**
+     * Set this to {@code true} to make the generated sources byte-identical for identical inputs, so that they can
+     * be shared through the build cache and downstream compilation is not triggered by a new {@code thrift} run.
+     * The date of the {@code @Generated} annotations is replaced by the date of {@code outputTimestamp} and line
+     * separators are normalized, as each file is generated.
+     *
+     * @parameter expression="${thrift.deterministic}" default-value="false"
+     */
+    private boolean deterministic;
+
+    /**
+     * The timestamp of the generated sources in deterministic mode: an ISO-8601 timestamp, seconds since the
+     * epoch or a {@code yyyy-MM-dd} date. By default the timestamp configured for reproducible builds, or
+     * {@code 1970-01-01} if there is none.
+     *
+     * @parameter default-value="${project.build.outputTimestamp}"
+     */
+    private String outputTimestamp;
+
+    /**
+     * Set this to {@code true} to compile the generated java sources in-process and add the classes to the
+     * project's classes directory, instead of adding the sources as a compile source root, so that the project's
+     * compilation only compiles its own sources. The classes are cached by a fingerprint of the generated sources,
+     * the classpath and the compiler options, so unchanged thrift files skip both {@code thrift} and javac. This
+     * requires Maven to run on a JDK and a known {@code -source} option, see {@code precompileSource}; the sources
+     * are added as usual otherwise.
+     *
+     * @parameter expression="${thrift.precompile}" default-value="false"
+     */
+    private boolean precompile;
+
+    /**
+     * The location of the precompiled classes. By default a {@code thrift-classes} directory next to the local
+     * repository is used. Its least recently used entries are evicted above {@code buildCacheMaxSize}.
+     *
+     * @parameter expression="${thrift.precompiledClassesDirectory}"
+     */
+    private File precompiledClassesDirectory;
+
+    /**
+     * The {@code -source} option of the precompilation. By default the {@code source} (or {@code release}) of the
+     * maven-compiler-plugin is used, as configured for the compilation of the project's classes or set by the
+     * {@code maven.compiler.source} project property. When neither is set, the sources are not precompiled, since
+     * the default of the JDK running Maven may not match the project's.
+     *
+     * @parameter expression="${thrift.precompileSource}"
+     */
+    private String precompileSource;
+
+    /**
+     * The {@code -target} option of the precompilation. By default the {@code target} (or {@code release}) of the
+     * maven-compiler-plugin is used, as for {@code precompileSource}, and otherwise the {@code -source} option.
+     *
+     * @parameter expression="${thrift.precompileTarget}"
+     */
+    private String precompileTarget;
+
     /**
      * Executes the mojo.
      */
     public void execute() throws MojoExecutionException, MojoFailureException {
         checkParameters();
-        final File thriftSourceRoot = getThriftSourceRoot();
-        if (thriftSourceRoot.exists()) {
+        report = new BuildReport();
+        if (!sourceDirectories.isEmpty()) {
             try {
-                ImmutableSet<File> thriftFiles = findThriftFilesInDirectory(thriftSourceRoot);
-                final File outputDirectory = getOutputDirectory();
-                ImmutableSet<File> outputFiles = findGeneratedFilesInDirectory(getOutputDirectory());
+                boolean incrementalBuild = incremental;
+                boolean writeChangedOnly = writeIfChanged;
+                if (buildContext.isIncremental()) {
+                    if (!hasChangedThriftFiles()) {
+                        getLog().debug("No thrift file changed since the previous build.");
+                        attach();
+                        return;
+                    }
+                    // the build state identifies the sources affected by the changes, and unchanged outputs
+                    // are not rewritten so that the IDE does not rebuild them
+                    incrementalBuild = true;
+                    writeChangedOnly = true;
+                }
+                BuildReport.Span phase = report.start(BuildReport.PHASE, "discovery");
+                final SourceScanner.Result sources = scanSourceRoots();
+                ImmutableSet<File> thriftFiles = sources.getFiles();
+                phase.end();
+                report.count("thriftFiles", thriftFiles.size());
 
                 if (thriftFiles.isEmpty()) {
                     getLog().info("No thrift files to compile.");
-                } else if (checkStaleness && ((lastModified(thriftFiles) + staleMillis) < lastModified(outputFiles))) {
+                } else if (checkStaleness && isUpToDate(sources)) {
                     getLog().info("Skipping compilation because target directory newer than sources.");
-                    attachFiles();
+                    report.count("filesSkipped", thriftFiles.size());
+                    attach();
                 } else {
-                    ImmutableSet<File> derivedThriftPathElements =
-                            makeThriftPathFromJars(temporaryThriftFileDirectory, getDependencyArtifactFiles());
-                    outputDirectory.mkdirs();
-
-                    // Quick fix to fix issues with two mvn installs in a row (ie no clean)
-                    cleanDirectory(outputDirectory);
-
-                    Thrift thrift = new Thrift.Builder(thriftExecutable, outputDirectory)
-                            .setGenerator(generator)
-                            .addThriftPathElement(thriftSourceRoot)
-                            .addThriftPathElements(derivedThriftPathElements)
-                            .addThriftPathElements(asList(additionalThriftPathElements))
-                            .addThriftFiles(thriftFiles)
-                            .build();
-                    final int exitStatus = thrift.compile();
-                    if (exitStatus != 0) {
-                        getLog().error("thrift failed output: " + thrift.getOutput());
-                        getLog().error("thrift failed error: " + thrift.getError());
-                        throw new MojoFailureException(
-                                "thrift did not exit cleanly. Review output for more information.");
-                    }
-                    attachFiles();
+                    phase = report.start(BuildReport.PHASE, "compiler");
+                    checkCompilerVersion();
+                    phase.end();
+
+                    compileSources(thriftFiles, makeThriftPath(thriftFiles), incrementalBuild, writeChangedOnly);
+                    attach();
                 }
+                finishReport();
             } catch (IOException e) {
                 throw new MojoExecutionException("An IO error occured", e);
             } catch (IllegalArgumentException e) {
@@ -207,51 +547,904 @@ abstract class AbstractThriftMojo extends AbstractMojo {
             }
         } else {
             getLog().info(format("%s does not exist. Review the configuration or consider disabling the plugin.",
-                    thriftSourceRoot));
+                    Joiner.on(", ").join(sourceRoots)));
+        }
+    }
+
+    /**
+     * @return {@code true} if the build context reports a thrift file of the source roots or a file of the
+     *         additional thrift path elements as changed or deleted since the previous incremental build.
+     */
+    private boolean hasChangedThriftFiles() {
+        for (SourceRoot sourceRoot : sourceRoots) {
+            final File directory = sourceRoot.getDirectory();
+            if (!directory.isDirectory()) {
+                continue;
+            }
+            final String[] rootIncludes = firstNonNull(sourceRoot.getIncludes(), includes).toArray(new String[0]);
+            final String[] rootExcludes = firstNonNull(sourceRoot.getExcludes(), excludes).toArray(new String[0]);
+            final List<Scanner> scanners =
+                    asList(buildContext.newScanner(directory), buildContext.newDeleteScanner(directory));
+            for (Scanner scanner : scanners) {
+                scanner.setIncludes(rootIncludes);
+                scanner.setExcludes(rootExcludes);
+                scanner.scan();
+                if (scanner.getIncludedFiles().length > 0) {
+                    return true;
+                }
+            }
+        }
+        for (File thriftPathElement : additionalThriftPathElements) {
+            if (buildContext.hasDelta(thriftPathElement)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles the sources, then recompiles the sources affected by each change to the source roots or the
+     * additional thrift path elements, until the thread is interrupted. The dependencies are resolved and
+     * extracted once. Changes are detected with the file system's watch service, and the changes made within
+     * {@code debounceMillis} of each other are compiled together. A failed compile is logged, and does not
+     * end the watch.
+     */
+    protected void watch(long debounceMillis) throws MojoExecutionException, MojoFailureException {
+        checkParameters();
+        if (sourceDirectories.isEmpty()) {
+            getLog().info(format("%s does not exist. Review the configuration or consider disabling the plugin.",
+                    Joiner.on(", ").join(sourceRoots)));
+            return;
+        }
+        try {
+            checkCompilerVersion();
+            final WatchService watchService = FileSystems.getDefault().newWatchService();
+            try {
+                final Map<WatchKey, Path> watchedDirectories = newHashMap();
+                for (File sourceDirectory : sourceDirectories) {
+                    register(watchService, sourceDirectory.toPath(), watchedDirectories);
+                }
+                for (File thriftPathElement : additionalThriftPathElements) {
+                    if (thriftPathElement.isDirectory()) {
+                        register(watchService, thriftPathElement.toPath(), watchedDirectories);
+                    }
+                }
+                getLog().info(format("Watching %s for changes.", Joiner.on(", ").join(sourceDirectories)));
+
+                ImmutableList<File> thriftPath = null;
+                while (true) {
+                    report = new BuildReport();
+                    final ImmutableSet<File> thriftFiles = scanSourceRoots().getFiles();
+                    if (thriftFiles.isEmpty()) {
+                        getLog().info("No thrift files to compile.");
+                    } else {
+                        // the minimal thrift path depends on the includes of the sources
+                        if (thriftPath == null || minimizeThriftPath) {
+                            thriftPath = makeThriftPath(thriftFiles);
+                        }
+                        try {
+                            // the build state identifies the sources affected by a change, and unchanged outputs
+                            // are not rewritten so that the IDE or continuous compiler next to the watch does not
+                            // rebuild them
+                            compileSources(thriftFiles, thriftPath, true, true);
+                            finishReport();
+                        } catch (MojoFailureException e) {
+                            getLog().error(e.getMessage());
+                        }
+                    }
+                    awaitChanges(watchService, watchedDirectories, debounceMillis);
+                }
+            } finally {
+                watchService.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            getLog().info("Stopped watching.");
+        } catch (IOException e) {
+            throw new MojoExecutionException("An IO error occured", e);
+        } catch (IllegalArgumentException e) {
+            throw new MojoFailureException("thrift failed to execute because: " + e.getMessage(), e);
+        } catch (CommandLineException e) {
+            throw new MojoExecutionException("An error occurred while invoking thrift.", e);
         }
     }
 
-    ImmutableSet<File> findGeneratedFilesInDirectory(File directory) throws IOException {
-        if (directory == null || !directory.isDirectory())
-            return ImmutableSet.of();
+    /**
+     * Watches a directory and its subdirectories.
+     */
+    private static void register(final WatchService watchService, Path directory,
+                                 final Map<WatchKey, Path> watchedDirectories) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+                watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
 
+    /**
+     * Waits for a change to a thrift file or directory, then for {@code debounceMillis} without changes.
+     */
+    private static void awaitChanges(WatchService watchService, Map<WatchKey, Path> watchedDirectories,
+                                     long debounceMillis) throws InterruptedException, IOException {
+        boolean changed = false;
+        WatchKey key = watchService.take();
+        while (key != null) {
+            final Path directory = watchedDirectories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || directory == null) {
+                    changed = true;
+                    continue;
+                }
+                final Path path = directory.resolve((Path) event.context());
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                    register(watchService, path, watchedDirectories);
+                    changed = true;
+                } else if (path.toString().endsWith(THRIFT_FILE_SUFFIX) || watchedDirectories.containsValue(path)) {
+                    changed = true;
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+            key = changed ? watchService.poll(debounceMillis, TimeUnit.MILLISECONDS) : watchService.take();
+        }
+    }
+
+    /**
+     * Resolves the includes of the sources: extracts the thrift files of the dependencies and builds the thrift
+     * path, which starts with the source roots.
+     */
+    private ImmutableList<File> makeThriftPath(ImmutableSet<File> thriftFiles)
+            throws IOException, MojoExecutionException {
+        final BuildReport.Span phase = report.start(BuildReport.PHASE, "dependencies");
+        ImmutableSet<File> derivedThriftPathElements = minimizeThriftPath
+                ? makeMinimalThriftPath(temporaryThriftFileDirectory, getDependencyArtifactFiles(),
+                        thriftFiles, sourceDirectories)
+                : makeThriftPathFromJars(temporaryThriftFileDirectory, getDependencyArtifactFiles());
+        if (dependencyStore != null) {
+            report.count("jarsScanned", dependencyStore.getScannedJars());
+            report.count("filesExtracted", dependencyStore.getExtractedFiles());
+            report.count("bytesExtracted", dependencyStore.getExtractedBytes());
+        }
+        phase.end();
+        return ImmutableList.<File>builder()
+                .addAll(sourceDirectories)
+                .addAll(derivedThriftPathElements)
+                .addAll(asList(additionalThriftPathElements))
+                .build();
+    }
+
+    /**
+     * Compiles the sources with every generator.
+     *
+     * @param incremental    Whether only the sources affected by changes since the previous build are compiled.
+     * @param writeIfChanged Whether generated files are only written when their content changed.
+     */
+    private void compileSources(ImmutableSet<File> thriftFiles, ImmutableList<File> thriftPath, boolean incremental,
+                                boolean writeIfChanged)
+            throws IOException, CommandLineException, MojoExecutionException, MojoFailureException {
+        final BuildReport.Span phase = report.start(BuildReport.PHASE, "compile");
+        if (targets.size() == 1) {
+            compileTarget(targets.get(0), thriftFiles, thriftPath, incremental, writeIfChanged);
+        } else {
+            compileTargets(thriftFiles, thriftPath, incremental, writeIfChanged);
+        }
+        phase.end();
+    }
+
+    /**
+     * Compiles the sources with every generator concurrently. The invocations of all generators share the
+     * compiler permits, so the files of every generator are compiled as a single batch rather than one
+     * generator after the other.
+     */
+    private void compileTargets(final ImmutableSet<File> thriftFiles, final ImmutableList<File> thriftPath,
+                                final boolean incremental, final boolean writeIfChanged)
+            throws IOException, CommandLineException, MojoExecutionException, MojoFailureException {
+        final ExecutorService executor = Executors.newFixedThreadPool(targets.size(),
+                new ThreadFactoryBuilder().setNameFormat("thrift-generator-%d").setDaemon(true).build());
+        try {
+            final List<Future<Void>> results = newArrayList();
+            for (final GeneratorTarget target : targets) {
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        compileTarget(target, thriftFiles, thriftPath, incremental, writeIfChanged);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while waiting for thrift to complete", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            propagateIfInstanceOf(cause, IOException.class);
+            propagateIfInstanceOf(cause, CommandLineException.class);
+            propagateIfInstanceOf(cause, MojoExecutionException.class);
+            propagateIfInstanceOf(cause, MojoFailureException.class);
+            throw propagate(cause);
+        } finally {
+            // stops the other generators once one failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Compiles the sources into the output directory of a generator, incrementally if requested.
+     */
+    private void compileTarget(GeneratorTarget target, ImmutableSet<File> thriftFiles, ImmutableList<File> thriftPath,
+                               boolean incremental, boolean writeIfChanged)
+            throws IOException, CommandLineException, MojoExecutionException, MojoFailureException {
+        target.getOutputDirectory().mkdirs();
+        if (incremental) {
+            compileIncrementally(target, thriftFiles, thriftPath, writeIfChanged);
+        } else {
+            rebuild(target, thriftFiles, thriftPath, useBuildCache ? BuildState.create(getGeneratorKey(target),
+                    getCompiler().getFingerprint(), thriftPath, thriftFiles, new ThriftIncludes(thriftPath)) : null,
+                    writeIfChanged);
+        }
+    }
+
+    private void attach() throws IOException, MojoExecutionException, MojoFailureException {
+        final List<File> compileSourceRoots = newArrayList();
+        for (GeneratorTarget target : targets) {
+            if (precompile && "java".equals(target.getLanguage()) && compileClasses(target)) {
+                continue;
+            }
+            // the classes of a previous precompiled build would otherwise shadow the attached sources
+            deletePrecompiledClasses(target);
+            if (target.isAttached()) {
+                compileSourceRoots.add(target.getOutputDirectory());
+            }
+        }
+        final BuildReport.Span phase = report.start(BuildReport.PHASE, "attach");
+        attachFiles(ImmutableList.copyOf(compileSourceRoots), sourceDirectories);
+        phase.end();
+    }
+
+    /**
+     * Compiles the sources generated by a generator into the classes directory, reusing the classes of a
+     * previous build when the generated sources, the classpath and the compiler options are unchanged.
+     *
+     * @return {@code false} if no java compiler is available, so the sources must be attached instead.
+     */
+    private boolean compileClasses(GeneratorTarget target)
+            throws IOException, MojoExecutionException, MojoFailureException {
+        if (!PrecompiledClasses.isAvailable()) {
+            getLog().warn(getLabel(target) + "No java compiler is available, the generated sources are not "
+                    + "precompiled. Run Maven on a JDK to precompile them.");
+            return false;
+        }
+        final String release = getCompilerOption("release");
+        String source = precompileSource;
+        if (source == null) {
+            source = getCompilerOption("source");
+        }
+        if (source == null) {
+            source = release;
+        }
+        if (source == null) {
+            getLog().warn(getLabel(target) + "The source level of the project's compilation is not configured, the "
+                    + "generated sources are not precompiled. Set precompileSource to precompile them.");
+            return false;
+        }
+        String targetLevel = precompileTarget;
+        if (targetLevel == null) {
+            targetLevel = getCompilerOption("target");
+        }
+        if (targetLevel == null) {
+            targetLevel = release != null ? release : source;
+        }
+        final BuildReport.Span phase = report.start(BuildReport.PHASE, "precompile");
+        final File outputDirectory = target.getOutputDirectory();
+        final ImmutableList<File> sources = scanGeneratedFiles(outputDirectory).getFiles().asList();
+        final File classesDirectory = getClassesDirectory();
+        // the generated test sources may refer to the generated main classes
+        final List<File> classpath = newArrayList();
+        final File mainClassesDirectory = new File(project.getBuild().getOutputDirectory());
+        if (!mainClassesDirectory.getAbsoluteFile().equals(classesDirectory.getAbsoluteFile())) {
+            classpath.add(mainClassesDirectory);
+        }
+        classpath.addAll(getDependencyArtifactFiles());
+        final List<String> options = newArrayList("-proc:none", "-g", "-nowarn");
+        options.addAll(asList("-source", source, "-target", targetLevel));
+
+        final File extractedFile = getStateFile(outputDirectory, ".classes");
+        ImmutableSet<String> extracted = readExtractedClasses(extractedFile);
+        if (sources.isEmpty()) {
+            extracted = PrecompiledClasses.extract(null, classesDirectory, extracted);
+        } else {
+            final PrecompiledClasses cache = new PrecompiledClasses(firstNonNull(precompiledClassesDirectory,
+                    new File(new File(localRepository.getBasedir()).getAbsoluteFile().getParentFile(),
+                            "thrift-classes")), buildCacheMaxSize * 1024 * 1024);
+            final String key = PrecompiledClasses.getFingerprint(outputDirectory, sources, classpath, options,
+                    pluginVersion);
+            File classes = cache.get(key);
+            if (classes != null) {
+                getLog().debug(getLabel(target) + "Reusing the precompiled classes of the generated sources.");
+                report.count("classesCacheHits", 1);
+            } else {
+                getLog().info(getLabel(target) + format("Compiling %d generated sources.", sources.size()));
+                classes = cache.compile(key, sources, classpath, options,
+                        new LogDiagnosticListener(getLabel(target)));
+                if (classes == null) {
+                    throw new MojoFailureException("javac failed to compile the sources generated by "
+                            + target.getGenerator());
+                }
+                report.count("classesCompiled", sources.size());
+            }
+            // recorded first, so that the classes of an interrupted extraction are deleted by the next build
+            writeExtractedClasses(extractedFile, Sets.union(extracted, PrecompiledClasses.list(classes)));
+            extracted = PrecompiledClasses.extract(classes, classesDirectory, extracted);
+        }
+        writeExtractedClasses(extractedFile, extracted);
+        phase.end();
+        return true;
+    }
+
+    /**
+     * Reads a parameter of the maven-compiler-plugin compilation of the classes directory: the parameter of the
+     * execution, of the plugin, or its property. Test compilations prefer the test variant of the parameter, e.g.
+     * {@code testSource}.
+     *
+     * @return The value, or {@code null} if it is not set.
+     */
+    private String getCompilerOption(String name) {
+        final String execution = getCompilerExecution();
+        final List<String> names = newArrayList(name);
+        if (execution.contains("test")) {
+            names.add(0, "test" + Character.toUpperCase(name.charAt(0)) + name.substring(1));
+        }
+        for (String parameter : names) {
+            @SuppressWarnings("unchecked")
+            final List<Plugin> plugins = project.getBuildPlugins();
+            for (Plugin plugin : plugins) {
+                if (!"maven-compiler-plugin".equals(plugin.getArtifactId())) {
+                    continue;
+                }
+                final PluginExecution pluginExecution = plugin.getExecutionsAsMap().get(execution);
+                String value = getConfigurationValue(
+                        pluginExecution == null ? null : pluginExecution.getConfiguration(), parameter);
+                if (value == null) {
+                    value = getConfigurationValue(plugin.getConfiguration(), parameter);
+                }
+                if (value != null) {
+                    return value;
+                }
+            }
+            final String property = project.getProperties().getProperty("maven.compiler." + parameter);
+            if (property != null && property.trim().length() > 0) {
+                return property.trim();
+            }
+        }
+        return null;
+    }
+
+    private static String getConfigurationValue(Object configuration, String parameter) {
+        if (configuration instanceof Xpp3Dom) {
+            final Xpp3Dom child = ((Xpp3Dom) configuration).getChild(parameter);
+            if (child != null && child.getValue() != null && child.getValue().trim().length() > 0) {
+                return child.getValue().trim();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the classes extracted by a previous build that precompiled the sources of a generator.
+     */
+    private void deletePrecompiledClasses(GeneratorTarget target) throws IOException, MojoExecutionException {
+        final File extractedFile = getStateFile(target.getOutputDirectory(), ".classes");
+        if (extractedFile.isFile()) {
+            PrecompiledClasses.extract(null, getClassesDirectory(), readExtractedClasses(extractedFile));
+            Files.delete(extractedFile.toPath());
+        }
+    }
+
+    private static ImmutableSet<String> readExtractedClasses(File extractedFile) throws IOException {
+        return extractedFile.isFile()
+                ? ImmutableSet.copyOf(Files.readAllLines(extractedFile.toPath(), Charsets.UTF_8))
+                : ImmutableSet.<String>of();
+    }
+
+    private static void writeExtractedClasses(File extractedFile, Set<String> extracted) throws IOException {
+        Files.createDirectories(extractedFile.getParentFile().toPath());
+        Files.write(extractedFile.toPath(), extracted, Charsets.UTF_8);
+    }
+
+    /**
+     * Logs the summary of the report, and writes the report if requested.
+     */
+    private void finishReport() throws IOException {
+        getLog().info("thrift " + report.getSummary());
+        if (writeReport) {
+            if ("trace".equals(reportFormat)) {
+                report.writeTrace(getReportFile());
+            } else {
+                checkArgument("json".equals(reportFormat), "reportFormat must be json or trace");
+                report.writeJson(getReportFile());
+            }
+        }
+    }
+
+    /**
+     * Compiles only the sources affected by changes since the previous build, falling back to a full
+     * build when no usable build state exists.
+     */
+    private void compileIncrementally(GeneratorTarget target, ImmutableSet<File> thriftFiles,
+                                      ImmutableList<File> thriftPath, boolean writeIfChanged)
+            throws IOException, CommandLineException, MojoExecutionException, MojoFailureException {
+        final File outputDirectory = target.getOutputDirectory();
+        final File buildStateFile = getBuildStateFile(outputDirectory);
+        final BuildState previous = BuildState.read(buildStateFile);
+        final BuildState current = BuildState.create(getGeneratorKey(target), getCompiler().getFingerprint(),
+                thriftPath, thriftFiles, new ThriftIncludes(thriftPath));
+
+        // the state is only valid once the compile succeeds
+        buildStateFile.delete();
+
+        final String[] generatedFiles = outputDirectory.list();
+        if (generatedFiles != null && generatedFiles.length > 0 && canReuse(current, previous)) {
+            ImmutableSet<File> staleFiles = current.getStaleSources(previous);
+            final ImmutableSet<File> removedFiles = current.getRemovedSources(previous);
+            if (recursive) {
+                // files generated along with a recompiled or removed root must be generated again
+                final Set<File> regenerated = newHashSet(staleFiles);
+                for (File changed : Sets.union(staleFiles, removedFiles)) {
+                    regenerated.addAll(Sets.intersection(previous.getClosure(changed), current.getSources()));
+                }
+                staleFiles = ImmutableSet.copyOf(regenerated);
+            }
+            final Map<File, ImmutableSet<String>> generated = newHashMap();
+            report.count("filesSkipped", thriftFiles.size() - staleFiles.size());
+            if (staleFiles.isEmpty()) {
+                getLog().info(getLabel(target) + "Nothing to compile - all generated sources are up to date.");
+            } else {
+                getLog().info(getLabel(target)
+                        + format("Compiling %d of %d thrift files.", staleFiles.size(), thriftFiles.size()));
+                generated.putAll(compile(target, staleFiles, thriftPath, true));
+            }
+            // the outputs of sources that were not recompiled are unchanged
+            final Set<String> keep = newHashSet();
+            for (File thriftFile : thriftFiles) {
+                final File source = ThriftIncludes.normalize(thriftFile);
+                if (!generated.containsKey(source)) {
+                    generated.put(source, previous.getOutputs(source));
+                }
+                keep.addAll(generated.get(source));
+            }
+            final Set<String> orphans = newHashSet();
+            for (File source : Sets.union(staleFiles, removedFiles)) {
+                orphans.addAll(previous.getOutputs(source));
+            }
+            orphans.removeAll(keep);
+            for (String orphan : orphans) {
+                deleteGeneratedFile(new File(outputDirectory, orphan), outputDirectory);
+            }
+            current.withOutputs(generated).write(buildStateFile);
+        } else {
+            getLog().info(getLabel(target) + "Changes detected - recompiling all thrift files.");
+            current.withOutputs(rebuild(target, thriftFiles, thriftPath, current, writeIfChanged))
+                    .write(buildStateFile);
+        }
+    }
+
+    /**
+     * Regenerates every source, restoring the output from the build cache when it holds the sources
+     * generated from identical inputs.
+     *
+     * @param current The state of the sources, or {@code null} when neither the build cache nor the build state
+     *                is used.
+     * @return The files generated for each source, or an empty map if they are not known.
+     */
+    private ImmutableMap<File, ImmutableSet<String>> rebuild(GeneratorTarget target, ImmutableSet<File> thriftFiles,
+                                                             ImmutableList<File> thriftPath, BuildState current,
+                                                             boolean writeIfChanged)
+            throws CommandLineException, MojoExecutionException, MojoFailureException, IOException {
+        final File outputDirectory = target.getOutputDirectory();
+        if (!writeIfChanged) {
+            // Quick fix to fix issues with two mvn installs in a row (ie no clean)
+            cleanDirectory(outputDirectory);
+        }
+        final BuildCache buildCache = getBuildCache();
+        final String key = buildCache == null ? null : current.getFingerprint(pluginVersion, sourceDirectories);
+        if (buildCache != null) {
+            final BuildCache.CachedTree cachedTree = buildCache.restore(key, outputDirectory);
+            warnIfUnavailable(target, buildCache);
+            if (cachedTree != null) {
+                getLog().info(getLabel(target) + (cachedTree.isFetched()
+                        ? "Restored generated sources from the remote build cache."
+                        : "Restored generated sources from the build cache."));
+                report.count("cacheHits", 1);
+                report.count("remoteCacheHits", cachedTree.isFetched() ? 1 : 0);
+                report.count("filesSkipped", thriftFiles.size());
+                pruneOutputDirectory(outputDirectory, cachedTree.getFiles());
+                final Map<File, ImmutableSet<String>> generated = newHashMap();
+                for (Map.Entry<String, ImmutableSet<String>> outputs : cachedTree.getOutputs().entrySet()) {
+                    generated.put(BuildState.resolve(outputs.getKey(), sourceDirectories), outputs.getValue());
+                }
+                return ImmutableMap.copyOf(generated);
+            }
+            report.count("cacheMisses", 1);
+        }
+        // staging also records the outputs of each source, which cache entries and the build state keep
+        final ImmutableMap<File, ImmutableSet<String>> generated =
+                compile(target, thriftFiles, thriftPath, writeIfChanged || current != null);
+        if (writeIfChanged) {
+            final Set<String> keep = newHashSet();
+            for (ImmutableSet<String> outputs : generated.values()) {
+                keep.addAll(outputs);
+            }
+            pruneOutputDirectory(outputDirectory, keep);
+        }
+        if (buildCache != null) {
+            final Map<String, ImmutableSet<String>> outputs = newHashMap();
+            for (Map.Entry<File, ImmutableSet<String>> output : generated.entrySet()) {
+                outputs.put(BuildState.getRelativePath(output.getKey(), sourceDirectories), output.getValue());
+            }
+            final boolean available = buildCache.getRemoteFailure() == null;
+            buildCache.store(key, outputDirectory, outputs);
+            if (available) {
+                warnIfUnavailable(target, buildCache);
+            }
+        }
+        return generated;
+    }
+
+    private void warnIfUnavailable(GeneratorTarget target, BuildCache buildCache) {
+        if (buildCache.getRemoteFailure() != null) {
+            getLog().warn(getLabel(target) + format("The remote build cache %s is unavailable: %s",
+                    remoteBuildCache, buildCache.getRemoteFailure()));
+            report.count("remoteCacheFailures", 1);
+        }
+    }
+
+    /**
+     * @return {@code true} if the output directory can be updated from {@code previous} rather than rebuilt.
+     */
+    private boolean canReuse(BuildState current, BuildState previous) {
+        // the outputs of recompiled and removed sources can only be pruned when the generated files are tracked
+        return current.isCompatibleWith(previous) && previous.hasOutputs();
+    }
+
+    /**
+     * Deletes the files in the output directory that are not in {@code keep}.
+     *
+     * @param keep The paths of the generated files, relative to the output directory.
+     */
+    private void pruneOutputDirectory(File outputDirectory, Set<String> keep) throws IOException {
         // TODO(gak): plexus-utils needs generics
         @SuppressWarnings("unchecked")
-        List<File> javaFilesInDirectory = getFiles(directory, "**/*.java", null);
-        return ImmutableSet.copyOf(javaFilesInDirectory);
+        final List<String> existingFiles = getFileNames(outputDirectory, null, null, false);
+        for (String existingFile : existingFiles) {
+            if (!keep.contains(existingFile.replace(File.separatorChar, '/'))) {
+                deleteGeneratedFile(new File(outputDirectory, existingFile), outputDirectory);
+            }
+        }
     }
 
-    private long lastModified(ImmutableSet<File> files) {
-        long result = 0;
-        for (File file : files) {
-            if (file.lastModified() > result)
-                result = file.lastModified();
+    /**
+     * Deletes a generated file together with the directories it leaves empty.
+     */
+    private void deleteGeneratedFile(File file, File outputDirectory) {
+        file.delete();
+        buildContext.refresh(file);
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(outputDirectory) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+    }
+
+    /**
+     * @param stage Whether the generated files are staged, and only written when their content changed.
+     * @return The files generated for each source, when they were staged. With {@link #recursive} the files
+     *         generated by a root are attributed to the root, and the files it includes have no outputs.
+     */
+    private ImmutableMap<File, ImmutableSet<String>> compile(GeneratorTarget target, ImmutableSet<File> thriftFiles,
+                                                             ImmutableList<File> thriftPath, boolean stage)
+            throws CommandLineException, MojoExecutionException, MojoFailureException, IOException {
+        report.count("filesCompiled", thriftFiles.size());
+        final File durationsFile = getStateFile(target.getOutputDirectory(), ".durations");
+        final CompileDurations durations = CompileDurations.read(durationsFile);
+        final CompilerPermits permits = CompilerPermits.getShared(session, maxConcurrentCompilers > 0
+                ? maxConcurrentCompilers : Runtime.getRuntime().availableProcessors());
+        if (maxConcurrentCompilers > 0 && permits.getPermits() != maxConcurrentCompilers && !permitsConflictReported) {
+            getLog().warn(format("maxConcurrentCompilers is %d, but an earlier execution of this build set the limit "
+                    + "to %d. Configure the same limit in every module.", maxConcurrentCompilers,
+                    permits.getPermits()));
+            permitsConflictReported = true;
+        }
+        final Thrift.Builder builder = new Thrift.Builder(getCompiler().getExecutable().getPath(),
+                target.getOutputDirectory())
+                .setGenerator(target.getGenerator())
+                .addThriftPathElements(thriftPath)
+                .setThreads(getThreadCount())
+                .setWriteIfChanged(stage)
+                .setOutputListener(new LogOutputListener(getLabel(target)))
+                .setCompilerPermits(permits)
+                .setBuildReport(report)
+                .setCompileDurations(durations);
+        if (normalizer != null) {
+            builder.setNormalizer(normalizer);
+        }
+        final Set<File> coveredFiles = newHashSet();
+        if (recursive) {
+            final ThriftIncludes includes = new ThriftIncludes(thriftPath);
+            final ImmutableSet<File> roots = includes.getRecursiveRoots(thriftFiles);
+            for (File root : roots) {
+                builder.addRecursiveThriftFile(root);
+                coveredFiles.addAll(includes.getClosure(root));
+            }
+            for (File thriftFile : thriftFiles) {
+                final File normalized = ThriftIncludes.normalize(thriftFile);
+                if (!roots.contains(normalized) && !coveredFiles.contains(normalized)) {
+                    builder.addThriftFile(thriftFile);
+                }
+            }
+            getLog().info(getLabel(target)
+                    + format("Compiling %d thrift files with %d root files.", thriftFiles.size(), roots.size()));
+        } else {
+            builder.addThriftFiles(thriftFiles);
+        }
+        final Thrift thrift = builder.build();
+        final int exitStatus = thrift.compile();
+        durations.write(durationsFile);
+        report.count("permitWaitMillis", thrift.getPermitWaitMillis());
+        if (thrift.getQueuedInvocations() > 0) {
+            getLog().info(getLabel(target) + format(
+                    "%d thrift invocations waited %d ms for a compiler slot (%d shared by the build).",
+                    thrift.getQueuedInvocations(), thrift.getPermitWaitMillis(),
+                    permits.getPermits()));
+        }
+        if (exitStatus != 0) {
+            getLog().error(getLabel(target) + "thrift failed output: " + thrift.getOutput());
+            getLog().error(getLabel(target) + "thrift failed error: " + thrift.getError());
+            throw new MojoFailureException(
+                    "thrift did not exit cleanly. Review output for more information.");
+        }
+        refresh(target.getOutputDirectory(), thrift.getGeneratedFiles());
+        if (coveredFiles.isEmpty() || thrift.getGeneratedFiles().isEmpty()) {
+            return thrift.getGeneratedFiles();
+        }
+        final Map<File, ImmutableSet<String>> generated = newHashMap(thrift.getGeneratedFiles());
+        for (File coveredFile : coveredFiles) {
+            generated.put(coveredFile, ImmutableSet.<String>of());
+        }
+        return ImmutableMap.copyOf(generated);
+    }
+
+    /**
+     * Tells the build context about the files generated by an invocation, or about the whole output directory
+     * when the generated files are not known.
+     */
+    private void refresh(File outputDirectory, Map<File, ImmutableSet<String>> generatedFiles) {
+        if (generatedFiles.isEmpty()) {
+            buildContext.refresh(outputDirectory);
+            return;
+        }
+        for (ImmutableSet<String> files : generatedFiles.values()) {
+            for (String file : files) {
+                buildContext.refresh(new File(outputDirectory, file));
+            }
+        }
+    }
+
+    /**
+     * @return Identifies the output of a generator in the build state and the build cache key: the generator, and
+     *         the normalization of the generated sources.
+     */
+    private String getGeneratorKey(GeneratorTarget target) {
+        return normalizer == null ? target.getGenerator() : target.getGenerator() + ' ' + normalizer;
+    }
+
+    /**
+     * @return The prefix of the messages about a generator, empty when it is the only one.
+     */
+    private String getLabel(GeneratorTarget target) {
+        return targets.size() == 1 ? "" : "[" + target.getGenerator() + "] ";
+    }
+
+    /**
+     * Logs the output of {@code thrift} as it is printed, prefixed with the file being compiled.
+     */
+    private final class LogOutputListener implements Thrift.OutputListener {
+        private final String label;
+
+        LogOutputListener(String label) {
+            this.label = label;
+        }
+
+        public void output(File thriftFile, String line) {
+            getLog().info(label + format("[%s] %s", getDisplayName(thriftFile), line));
+        }
+
+        public void error(File thriftFile, String line) {
+            getLog().warn(label + format("[%s] %s", getDisplayName(thriftFile), line));
+        }
+    }
+
+    /**
+     * Logs the errors and warnings of javac.
+     */
+    private final class LogDiagnosticListener implements DiagnosticListener<JavaFileObject> {
+        private final String label;
+
+        LogDiagnosticListener(String label) {
+            this.label = label;
+        }
+
+        public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                getLog().error(label + diagnostic);
+            } else if (diagnostic.getKind() == Diagnostic.Kind.NOTE) {
+                getLog().debug(label + diagnostic);
+            } else {
+                getLog().warn(label + diagnostic);
+            }
+        }
+    }
+
+    /**
+     * @return The path of a thrift file relative to the source root containing it.
+     */
+    private String getDisplayName(File thriftFile) {
+        final int index = BuildState.getSourceRootIndex(thriftFile, sourceDirectories);
+        return BuildState.getRelativePath(thriftFile, sourceDirectories.get(Math.max(index, 0)));
+    }
+
+    /**
+     * @return The manifest of a generator, named after its output directory so that executions and
+     *         generators writing into different directories do not share state.
+     */
+    private File getBuildStateFile(File outputDirectory) throws MojoExecutionException {
+        return getStateFile(outputDirectory, ".properties");
+    }
+
+    /**
+     * @return A file of the build state directory, named after an output directory.
+     */
+    private File getStateFile(File outputDirectory, String suffix) throws MojoExecutionException {
+        final String path = outputDirectory.getAbsolutePath();
+        try {
+            return new File(buildStateDirectory,
+                    toHexString(MessageDigest.getInstance("MD5").digest(path.getBytes())) + suffix);
+        } catch (NoSuchAlgorithmException e) {
+            throw new MojoExecutionException("Failed to name the build state", e);
         }
-        return result;
+    }
+
+    /**
+     * @return {@code true} if the newest file generated by each generator is more than {@code staleMillis} newer
+     *         than the newest thrift file.
+     */
+    private boolean isUpToDate(SourceScanner.Result sources) throws IOException {
+        final BuildReport.Span phase = report.start(BuildReport.PHASE, "staleness");
+        try {
+            for (GeneratorTarget target : targets) {
+                if (sources.getLastModified() + staleMillis
+                        >= scanGeneratedFiles(target.getOutputDirectory()).getLastModified()) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            phase.end();
+        }
+    }
+
+    SourceScanner.Result scanGeneratedFiles(File directory) throws IOException {
+        return GENERATED_FILES.scan(directory, getDiscoveryThreadCount());
+    }
+
+    private int getThreadCount() {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    private int getDiscoveryThreadCount() {
+        return parallelDiscovery ? getThreadCount() : 1;
     }
 
     private void checkParameters() {
         checkNotNull(project, "project");
         checkNotNull(projectHelper, "projectHelper");
+        checkNotNull(buildContext, "buildContext");
         checkNotNull(thriftExecutable, "thriftExecutable");
-        checkNotNull(generator, "generator");
-        final File thriftSourceRoot = getThriftSourceRoot();
-        checkNotNull(thriftSourceRoot);
-        checkArgument(!thriftSourceRoot.isFile(), "thriftSourceRoot is a file, not a diretory");
+        sourceRoots = getSourceRoots();
+        final List<File> existingDirectories = newArrayList();
+        for (SourceRoot sourceRoot : sourceRoots) {
+            if (sourceRoot.getDirectory().isDirectory()) {
+                existingDirectories.add(sourceRoot.getDirectory());
+            } else if (sourceRoots.size() > 1) {
+                getLog().info(format("%s does not exist, skipping it.", sourceRoot));
+            }
+        }
+        sourceDirectories = ImmutableList.copyOf(existingDirectories);
         checkNotNull(temporaryThriftFileDirectory, "temporaryThriftFileDirectory");
         checkState(!temporaryThriftFileDirectory.isFile(), "temporaryThriftFileDirectory is a file, not a directory");
-        final File outputDirectory = getOutputDirectory();
-        checkNotNull(outputDirectory);
-        checkState(!outputDirectory.isFile(), "the outputDirectory is a file, not a directory");
+        targets = getTargets();
+        normalizer = deterministic ? GeneratedSourceNormalizer.forOutputTimestamp(outputTimestamp) : null;
+    }
+
+    /**
+     * @return The configured source roots, or the source root.
+     */
+    private ImmutableList<SourceRoot> getSourceRoots() {
+        final SourceRoot[] configured = getThriftSourceRoots();
+        if (configured.length == 0) {
+            final File thriftSourceRoot = getThriftSourceRoot();
+            checkNotNull(thriftSourceRoot);
+            checkArgument(!thriftSourceRoot.isFile(), "thriftSourceRoot is a file, not a diretory");
+            return ImmutableList.of(new SourceRoot(thriftSourceRoot));
+        }
+        for (SourceRoot sourceRoot : configured) {
+            checkArgument(sourceRoot.getDirectory() != null, "each of the thrift source roots must set a directory");
+            checkArgument(!sourceRoot.getDirectory().isFile(), "%s is a file, not a directory", sourceRoot);
+        }
+        return ImmutableList.copyOf(configured);
+    }
+
+    /**
+     * @return The configured generators, or {@code generator} writing into the output directory.
+     */
+    private ImmutableList<GeneratorTarget> getTargets() {
+        if (generators.length == 0) {
+            checkNotNull(generator, "generator");
+            final File outputDirectory = getOutputDirectory();
+            checkNotNull(outputDirectory);
+            checkState(!outputDirectory.isFile(), "the outputDirectory is a file, not a directory");
+            return ImmutableList.of(new GeneratorTarget(generator, outputDirectory, true));
+        }
+        final Set<File> outputDirectories = newHashSet();
+        for (GeneratorTarget target : generators) {
+            checkArgument(target.getGenerator() != null, "each of the generators must set a generator");
+            checkArgument(target.getOutputDirectory() != null, "each of the generators must set an outputDirectory");
+            checkState(!target.getOutputDirectory().isFile(), "the outputDirectory of %s is a file, not a directory",
+                    target.getGenerator());
+            checkArgument(outputDirectories.add(target.getOutputDirectory().getAbsoluteFile()),
+                    "each of the generators needs its own outputDirectory, %s is shared", target.getOutputDirectory());
+        }
+        return ImmutableList.copyOf(generators);
     }
 
     protected abstract File getThriftSourceRoot();
 
+    /**
+     * @return The source roots to compile instead of {@link #getThriftSourceRoot()}, or an empty array.
+     */
+    protected abstract SourceRoot[] getThriftSourceRoots();
+
     protected abstract List<Artifact> getDependencyArtifacts();
 
     protected abstract File getOutputDirectory();
 
-    protected abstract void attachFiles();
+    /**
+     * Adds the generated sources and the thrift files to the project.
+     *
+     * @param compileSourceRoots The output directories of the generators that are attached.
+     * @param resourceDirectories The source roots, whose thrift files are added as resources.
+     */
+    protected abstract void attachFiles(ImmutableList<File> compileSourceRoots,
+                                        ImmutableList<File> resourceDirectories);
+
+    /**
+     * @return The file the report is written to when {@code writeReport} is set.
+     */
+    protected abstract File getReportFile();
+
+    /**
+     * @return The directory the project's classes are compiled into, which receives the precompiled classes.
+     */
+    protected abstract File getClassesDirectory();
+
+    /**
+     * @return The id of the maven-compiler-plugin execution compiling {@link #getClassesDirectory()}, whose
+     *         configuration the precompilation follows.
+     */
+    protected abstract String getCompilerExecution();
 
     /**
      * Gets the {@link File} for each dependency artifact.
@@ -259,7 +1452,7 @@ abstract class AbstractThriftMojo extends AbstractMojo {
      * @return A set of all dependency artifacts.
      */
     private ImmutableSet<File> getDependencyArtifactFiles() {
-        Set<File> dependencyArtifactFiles = newHashSet();
+        Set<File> dependencyArtifactFiles = newLinkedHashSet();
         for (Artifact artifact : getDependencyArtifacts()) {
             dependencyArtifactFiles.add(artifact.getFile());
         }
@@ -272,62 +1465,289 @@ abstract class AbstractThriftMojo extends AbstractMojo {
     ImmutableSet<File> makeThriftPathFromJars(File temporaryThriftFileDirectory, Iterable<File> classpathElementFiles)
             throws IOException, MojoExecutionException {
         checkNotNull(classpathElementFiles, "classpathElementFiles");
-        // clean the temporary directory to ensure that stale files aren't used
-        if (temporaryThriftFileDirectory.exists()) {
-            cleanDirectory(temporaryThriftFileDirectory);
-        }
-        Set<File> thriftDirectories = newHashSet();
-        for (File classpathElementFile : classpathElementFiles) {
-            // for some reason under IAM, we receive poms as dependent files
-            // I am excluding .xml rather than including .jar as there may be other extensions in use (sar, har, zip)
-            if (classpathElementFile.isFile() && classpathElementFile.canRead() &&
-                    !classpathElementFile.getName().endsWith(".xml")) {
-
-                // create the jar file. the constructor validates.
-                JarFile classpathJar;
-                try {
-                    classpathJar = new JarFile(classpathElementFile);
-                } catch (IOException e) {
-                    throw new IllegalArgumentException(format(
-                            "%s was not a readable artifact", classpathElementFile));
+        final DirectoryIndex directoryIndex =
+                DirectoryIndex.open(getStateFile(temporaryThriftFileDirectory, DIRECTORY_INDEX));
+        // files from previous builds are reused, and removed when their jar or entry disappeared
+        final DependencyExtractor extractor = DependencyExtractor.open(temporaryThriftFileDirectory);
+        // in classpath order, so that the thrift path is the same in every build
+        Set<File> thriftDirectories = newLinkedHashSet();
+        try {
+            final List<File> jars = newArrayList();
+            for (File classpathElementFile : classpathElementFiles) {
+                if (DependencyIndex.isJar(classpathElementFile)) {
+                    jars.add(classpathElementFile);
                 }
-                for (JarEntry jarEntry : list(classpathJar.entries())) {
-                    final String jarEntryName = jarEntry.getName();
-                    if (jarEntry.getName().endsWith(THRIFT_FILE_SUFFIX)) {
-                        final File uncompressedCopy =
-                                new File(new File(temporaryThriftFileDirectory,
-                                        truncatePath(classpathJar.getName())), jarEntryName);
-                        uncompressedCopy.getParentFile().mkdirs();
-                        copyStreamToFile(new RawInputStreamFacade(classpathJar
-                                .getInputStream(jarEntry)), uncompressedCopy);
-                        thriftDirectories.add(uncompressedCopy.getParentFile());
+            }
+            // only the central directories of jars that changed since the last build are read
+            if (getDependencyStore() == null) {
+                extractor.scan(jars, getThreadCount());
+            }
+
+            for (File classpathElementFile : classpathElementFiles) {
+                if (DependencyIndex.isJar(classpathElementFile) && getDependencyStore() != null) {
+                    final DependencyStore.Extraction extraction = getDependencyStore()
+                            .extract(classpathElementFile, getArtifactCoordinates(classpathElementFile));
+                    for (String jarEntryName : extraction.getEntries()) {
+                        thriftDirectories.add(new File(extraction.getDirectory(), jarEntryName).getParentFile());
+                    }
+                } else if (DependencyIndex.isJar(classpathElementFile)) {
+                    final File extractionDirectory =
+                            new File(temporaryThriftFileDirectory, truncatePath(classpathElementFile.getPath()));
+                    for (String jarEntryName : extractor.extractAll(classpathElementFile, extractionDirectory)) {
+                        thriftDirectories.add(new File(extractionDirectory, jarEntryName).getParentFile());
+                    }
+                } else if (classpathElementFile.isDirectory()) {
+                    for (String thriftFile : directoryIndex.getThriftFiles(classpathElementFile)) {
+                        thriftDirectories.add(new File(classpathElementFile, thriftFile).getParentFile());
                     }
                 }
-            } else if (classpathElementFile.isDirectory()) {
-                File[] thriftFiles = classpathElementFile.listFiles(new FilenameFilter() {
-                    public boolean accept(File dir, String name) {
-                        return name.endsWith(THRIFT_FILE_SUFFIX);
+            }
+            extractor.finish();
+            directoryIndex.write();
+            report.count("directoriesListed", directoryIndex.getListedDirectories());
+            report.count("jarsScanned", extractor.getScannedJars());
+            report.count("filesExtracted", extractor.getExtractedFiles());
+            report.count("bytesExtracted", extractor.getExtractedBytes());
+        } finally {
+            extractor.close();
+        }
+        return ImmutableSet.copyOf(thriftDirectories);
+    }
+
+    /**
+     * Builds the thrift path needed by {@code thriftFiles}, extracting only the dependency thrift files
+     * reachable from their includes.
+     * <p/>
+     * Includes are resolved in the same order as {@code thrift} does with the full thrift path: next to the
+     * including file, then in the source roots, the dependencies and finally the additional thrift path elements.
+     *
+     * @return The include roots needed to resolve the includes, in the order of the full thrift path, so that
+     *         an include resolves to the same file as with the full thrift path.
+     */
+    ImmutableSet<File> makeMinimalThriftPath(File temporaryThriftFileDirectory, Iterable<File> classpathElementFiles,
+                                             Iterable<File> thriftFiles, List<File> thriftSourceRoots)
+            throws IOException, MojoExecutionException {
+        final DirectoryIndex directoryIndex =
+                DirectoryIndex.open(getStateFile(temporaryThriftFileDirectory, DIRECTORY_INDEX));
+        final DependencyIndex index = DependencyIndex.create(classpathElementFiles, getThreadCount(), directoryIndex);
+        report.count("jarsScanned", index.getScannedJars());
+        report.count("directoriesListed", directoryIndex.getListedDirectories());
+        final DependencyExtractor extractor = DependencyExtractor.open(temporaryThriftFileDirectory);
+        final Map<File, File> dependencyRoots = newHashMap();
+        final Map<File, Set<String>> neededRoots = newHashMap();
+        final Map<File, DependencyIndex.Location> extracted = newHashMap();
+        final Set<File> visited = newHashSet();
+        final LinkedList<File> pending = newLinkedList(thriftFiles);
+        try {
+            while (!pending.isEmpty()) {
+                final File thriftFile = pending.removeFirst();
+                if (!visited.add(thriftFile)) {
+                    continue;
+                }
+                final DependencyIndex.Location origin = extracted.get(thriftFile);
+                for (String include : ThriftIncludes.parse(thriftFile)) {
+                    File resolved = null;
+                    DependencyIndex.Location location = null;
+                    if (origin != null) {
+                        location = index.findSibling(origin, include);
+                    } else {
+                        resolved = findFile(include, thriftFile.getParentFile());
+                    }
+                    if (resolved == null && location == null) {
+                        resolved = findFile(include, thriftSourceRoots.toArray(new File[thriftSourceRoots.size()]));
+                    }
+                    if (resolved == null && location == null) {
+                        location = index.find(include);
+                    }
+                    if (resolved == null && location == null) {
+                        resolved = findFile(include, additionalThriftPathElements);
                     }
-                });
 
-                if (thriftFiles.length > 0) {
-                    thriftDirectories.add(classpathElementFile);
+                    if (location != null) {
+                        File dependencyRoot = dependencyRoots.get(location.getClasspathElement());
+                        if (dependencyRoot == null) {
+                            dependencyRoot = getDependencyRoot(temporaryThriftFileDirectory, location);
+                            dependencyRoots.put(location.getClasspathElement(), dependencyRoot);
+                        }
+                        resolved = new File(dependencyRoot, location.getEntry());
+                        if (!extracted.containsKey(resolved)) {
+                            final JarScanner.Entry jarEntry = index.getJarEntry(location);
+                            if (jarEntry != null && getDependencyStore() == null) {
+                                extractor.extract(location.getClasspathElement(), jarEntry, dependencyRoot);
+                            }
+                            extracted.put(resolved, location);
+                        }
+                        if (location.getRoot() != null) {
+                            Set<String> roots = neededRoots.get(location.getClasspathElement());
+                            if (roots == null) {
+                                roots = newHashSet();
+                                neededRoots.put(location.getClasspathElement(), roots);
+                            }
+                            roots.add(location.getRoot());
+                        }
+                    }
+                    if (resolved != null) {
+                        pending.add(resolved);
+                    }
+                }
+            }
+            extractor.finish();
+            directoryIndex.write();
+            report.count("filesExtracted", extractor.getExtractedFiles());
+            report.count("bytesExtracted", extractor.getExtractedBytes());
+        } finally {
+            extractor.close();
+        }
+        // the roots are found in the order the includes are read, but thrift searches them in classpath order
+        final Set<File> thriftDirectories = newLinkedHashSet();
+        for (File classpathElement : index.getClasspathElements()) {
+            final Set<String> roots = neededRoots.get(classpathElement);
+            if (roots != null) {
+                final File dependencyRoot = dependencyRoots.get(classpathElement);
+                for (String root : index.getRoots(classpathElement)) {
+                    if (roots.contains(root)) {
+                        thriftDirectories.add(root.length() == 0 ? dependencyRoot : new File(dependencyRoot, root));
+                    }
                 }
             }
         }
         return ImmutableSet.copyOf(thriftDirectories);
     }
 
+    private static File findFile(String include, File... directories) {
+        for (File directory : directories) {
+            final File candidate = new File(directory, include);
+            if (candidate.isFile()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The directory holding the thrift files of a dependency: the directory itself, or the
+     *         extraction directory of a jar.
+     */
+    private File getDependencyRoot(File temporaryThriftFileDirectory, DependencyIndex.Location location)
+            throws IOException, MojoExecutionException {
+        final File classpathElement = location.getClasspathElement();
+        if (classpathElement.isDirectory()) {
+            return classpathElement;
+        } else if (getDependencyStore() != null) {
+            return getDependencyStore()
+                    .extract(classpathElement, getArtifactCoordinates(classpathElement)).getDirectory();
+        }
+        return new File(temporaryThriftFileDirectory, truncatePath(classpathElement.getPath()));
+    }
+
+    /**
+     * @return The shared dependency store, or {@code null} if it is not enabled.
+     */
+    private DependencyStore getDependencyStore() {
+        if (!useDependencyStore) {
+            return null;
+        }
+        if (dependencyStore == null) {
+            File storeDirectory = dependencyStoreDirectory;
+            if (storeDirectory == null) {
+                storeDirectory = new File(new File(localRepository.getBasedir()).getAbsoluteFile().getParentFile(),
+                        "thrift-store");
+            }
+            dependencyStore = new DependencyStore(storeDirectory, dependencyStoreMaxSize * 1024 * 1024);
+        }
+        return dependencyStore;
+    }
+
+    /**
+     * @return The {@code thrift} executable, resolved and fingerprinted once per build.
+     */
+    private ThriftCompiler getCompiler() throws CommandLineException, IOException {
+        if (compiler == null) {
+            compiler = ThriftCompiler.resolve(thriftExecutable,
+                    new File(new File(localRepository.getBasedir()).getAbsoluteFile().getParentFile(),
+                            "thrift-compilers"));
+            getLog().debug(format("Using %s.", compiler));
+        }
+        return compiler;
+    }
+
+    /**
+     * Fails the build if the {@code thrift} executable does not report the required version.
+     */
+    private void checkCompilerVersion() throws CommandLineException, IOException, MojoFailureException {
+        if (thriftVersion != null && !thriftVersion.equals(getCompiler().getVersionNumber())) {
+            throw new MojoFailureException(format("thrift %s is required, but %s reports version %s.",
+                    thriftVersion, getCompiler().getExecutable(), getCompiler().getVersionNumber()));
+        }
+    }
+
+    private BuildCache getBuildCache() {
+        if (!useBuildCache) {
+            return null;
+        }
+        File cacheDirectory = buildCacheDirectory;
+        if (cacheDirectory == null) {
+            cacheDirectory = new File(new File(localRepository.getBasedir()).getAbsoluteFile().getParentFile(),
+                    "thrift-cache");
+        }
+        return new BuildCache(cacheDirectory, buildCacheMaxSize * 1024 * 1024,
+                remoteBuildCache == null ? null : RemoteCache.create(remoteBuildCache, remoteBuildCacheTimeout),
+                remoteBuildCachePush);
+    }
+
+    /**
+     * @return The location of an artifact within the dependency store, mirroring the repository layout.
+     */
+    private String getArtifactCoordinates(File artifactFile) {
+        for (Artifact artifact : getDependencyArtifacts()) {
+            if (artifactFile.equals(artifact.getFile())) {
+                final StringBuilder coordinates = new StringBuilder()
+                        .append(artifact.getGroupId().replace('.', '/')).append('/')
+                        .append(artifact.getArtifactId()).append('/')
+                        .append(artifact.getVersion());
+                if (artifact.hasClassifier()) {
+                    coordinates.append('/').append(artifact.getClassifier());
+                }
+                return coordinates.toString();
+            }
+        }
+        return "unknown/" + artifactFile.getName();
+    }
+
     ImmutableSet<File> findThriftFilesInDirectory(File directory) throws IOException {
-        checkNotNull(directory);
-        checkArgument(directory.isDirectory(), "%s is not a directory", directory);
+        return scanThriftFiles(directory).getFiles();
+    }
 
-        final Joiner joiner = Joiner.on(',');
+    /**
+     * Discovers the thrift files of every source root, each with its own includes and excludes.
+     *
+     * @return The thrift files, ordered by source root.
+     */
+    private SourceScanner.Result scanSourceRoots() throws IOException {
+        final List<SourceScanner.Result> results = newArrayList();
+        for (SourceRoot sourceRoot : sourceRoots) {
+            final File directory = sourceRoot.getDirectory();
+            if (!directory.isDirectory()) {
+                continue;
+            }
+            if (sourceRoot.getIncludes() == null && sourceRoot.getExcludes() == null) {
+                results.add(scanThriftFiles(directory));
+            } else {
+                results.add(new SourceScanner(firstNonNull(sourceRoot.getIncludes(), includes),
+                        firstNonNull(sourceRoot.getExcludes(), excludes))
+                        .scan(directory, getDiscoveryThreadCount()));
+            }
+        }
+        return SourceScanner.Result.combine(results);
+    }
 
-        // TODO(gak): plexus-utils needs generics
-        @SuppressWarnings("unchecked")
-        List<File> thriftFilesInDirectory = getFiles(directory, joiner.join(includes), joiner.join(excludes));
-        return ImmutableSet.copyOf(thriftFilesInDirectory);
+    SourceScanner.Result scanThriftFiles(File directory) throws IOException {
+        checkNotNull(directory);
+        checkArgument(directory.isDirectory(), "%s is not a directory", directory);
+        if (sourceScanner == null) {
+            sourceScanner = new SourceScanner(includes, excludes);
+        }
+        return sourceScanner.scan(directory, getDiscoveryThreadCount());
     }
 
     ImmutableSet<File> findThriftFilesInDirectories(Iterable<File> directories) throws IOException {
@@ -0,0 +1,358 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
+import static org.codehaus.plexus.util.FileUtils.getFileNames;
+
+/**
+ * A local cache of generated source trees, keyed by a fingerprint of every input of the compilation
+ * (see {@link BuildState#getFingerprint(String, List)}).
+ * <p/>
+ * Each tree is stored as a single compressed archive named after the fingerprint. Archives are written
+ * to a temporary file and renamed into place, so concurrent builds never see a partial entry. Restoring
+ * an entry touches its modification time, and once the archives exceed the configured size the least
+ * recently used ones are evicted.
+ * <p/>
+ * A {@link RemoteCache} may back the local cache: archives missing locally are fetched from it, and new
+ * archives are pushed to it. Once the remote cache fails it is no longer used by this instance, and the
+ * failure is available from {@link #getRemoteFailure()}, so that an unreachable backend only costs the
+ * first request.
+ */
+final class BuildCache {
+
+    private static final String ARCHIVE_SUFFIX = ".zip";
+
+    private static final String OUTPUTS_ENTRY = "outputs.properties";
+
+    private static final String FILES_PREFIX = "files/";
+
+    private static final Joiner OUTPUT_JOINER = Joiner.on(';');
+    private static final Splitter OUTPUT_SPLITTER = Splitter.on(';').omitEmptyStrings();
+
+    private final File directory;
+    private final long maxSize;
+    private final RemoteCache remote;
+    private final boolean push;
+    private volatile IOException remoteFailure;
+
+    /**
+     * @param directory The directory holding the cached archives.
+     * @param maxSize   The size, in bytes, above which the least recently used archives are evicted.
+     */
+    BuildCache(File directory, long maxSize) {
+        this(directory, maxSize, null, false);
+    }
+
+    /**
+     * @param directory The directory holding the cached archives.
+     * @param maxSize   The size, in bytes, above which the least recently used archives are evicted.
+     * @param remote    The shared cache consulted on a local miss, or {@code null}.
+     * @param push      Whether stored archives are pushed to the remote cache.
+     */
+    BuildCache(File directory, long maxSize, RemoteCache remote, boolean push) {
+        checkArgument(maxSize > 0, "maxSize must be positive");
+        this.directory = checkNotNull(directory, "directory");
+        this.maxSize = maxSize;
+        this.remote = remote;
+        this.push = push;
+    }
+
+    /**
+     * Restores a cached tree into the output directory. Files whose content is already identical are
+     * left untouched; files that are not part of the cached tree are not deleted.
+     *
+     * @param key             The fingerprint of the inputs.
+     * @param outputDirectory The directory the tree is restored into.
+     * @return The restored tree, or {@code null} if the cache has no usable entry for {@code key}.
+     * @throws IOException If the output directory cannot be written.
+     */
+    CachedTree restore(String key, File outputDirectory) throws IOException {
+        final File archive = getArchive(key);
+        boolean fetched = false;
+        if (!archive.isFile()) {
+            if (!fetch(key, archive)) {
+                return null;
+            }
+            fetched = true;
+        }
+        final ZipFile zipFile;
+        try {
+            zipFile = new ZipFile(archive);
+        } catch (IOException e) {
+            // a corrupt entry is treated like a missing one
+            archive.delete();
+            return null;
+        }
+        final Map<String, File> targets = getTargets(zipFile, outputDirectory);
+        if (targets == null) {
+            // an entry escaping the output directory is treated like a corrupt archive
+            zipFile.close();
+            archive.delete();
+            return null;
+        }
+        try {
+            final Set<String> files = newLinkedHashSet();
+            final Properties outputs = new Properties();
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final InputStream in = zipFile.getInputStream(entry);
+                try {
+                    if (entry.getName().equals(OUTPUTS_ENTRY)) {
+                        outputs.load(in);
+                    } else if (targets.containsKey(entry.getName())) {
+                        writeIfChanged(ByteStreams.toByteArray(in), targets.get(entry.getName()));
+                        files.add(entry.getName().substring(FILES_PREFIX.length()));
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            archive.setLastModified(System.currentTimeMillis());
+
+            final Map<String, ImmutableSet<String>> outputMap = newLinkedHashMap();
+            for (String source : outputs.stringPropertyNames()) {
+                outputMap.put(source, ImmutableSet.copyOf(OUTPUT_SPLITTER.split(outputs.getProperty(source))));
+            }
+            return new CachedTree(ImmutableSet.copyOf(files), ImmutableMap.copyOf(outputMap), fetched);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * @return The file each entry of the tree is restored to, or {@code null} if an entry does not resolve to
+     *         a file inside the output directory.
+     */
+    private static Map<String, File> getTargets(ZipFile zipFile, File outputDirectory) {
+        final Path root = outputDirectory.toPath().toAbsolutePath().normalize();
+        final Map<String, File> targets = newLinkedHashMap();
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            final String name = entries.nextElement().getName();
+            if (name.startsWith(FILES_PREFIX)) {
+                final Path target;
+                try {
+                    target = root.resolve(name.substring(FILES_PREFIX.length())).normalize();
+                } catch (InvalidPathException e) {
+                    return null;
+                }
+                if (!target.startsWith(root) || target.equals(root)) {
+                    return null;
+                }
+                targets.put(name, target.toFile());
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Fetches an archive missing from the local cache from the remote cache.
+     *
+     * @return {@code true} if the archive was fetched.
+     */
+    private boolean fetch(String key, File archive) {
+        if (remote == null || remoteFailure != null) {
+            return false;
+        }
+        directory.mkdirs();
+        final File temporary = new File(directory, key + '.' + UUID.randomUUID() + ".tmp");
+        try {
+            if (!remote.fetch(archive.getName(), temporary)) {
+                return false;
+            }
+            return temporary.renameTo(archive) || archive.isFile();
+        } catch (IOException e) {
+            remoteFailure = e;
+            return false;
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * @return The first error of the remote cache, after which it was no longer used, or {@code null}.
+     */
+    IOException getRemoteFailure() {
+        return remoteFailure;
+    }
+
+    private static void writeIfChanged(byte[] content, File target) throws IOException {
+        if (target.isFile() && target.length() == content.length && Arrays.equals(Files.toByteArray(target), content)) {
+            return;
+        }
+        target.getParentFile().mkdirs();
+        Files.write(content, target);
+    }
+
+    /**
+     * Stores the content of the output directory, then evicts the least recently used entries if the
+     * cache has grown too large.
+     *
+     * @param key             The fingerprint of the inputs.
+     * @param outputDirectory The directory holding exactly the generated files.
+     * @param outputs         The generated files of each source, if known, keyed by source path.
+     * @throws IOException If the cache cannot be written.
+     */
+    void store(String key, File outputDirectory, Map<String, ? extends Set<String>> outputs) throws IOException {
+        final File archive = getArchive(key);
+        if (archive.isFile()) {
+            return;
+        }
+        directory.mkdirs();
+        final File temporary = new File(directory, key + '.' + UUID.randomUUID() + ".tmp");
+        try {
+            final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(temporary));
+            try {
+                final Properties outputProperties = new Properties();
+                for (Map.Entry<String, ? extends Set<String>> output : outputs.entrySet()) {
+                    outputProperties.setProperty(output.getKey(), OUTPUT_JOINER.join(output.getValue()));
+                }
+                out.putNextEntry(new ZipEntry(OUTPUTS_ENTRY));
+                outputProperties.store(out, null);
+                out.closeEntry();
+
+                // TODO(gak): plexus-utils needs generics
+                @SuppressWarnings("unchecked")
+                final List<String> files = getFileNames(outputDirectory, null, null, false);
+                for (String file : files) {
+                    out.putNextEntry(new ZipEntry(FILES_PREFIX + file.replace(File.separatorChar, '/')));
+                    Files.copy(new File(outputDirectory, file), out);
+                    out.closeEntry();
+                }
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(archive) && !archive.isFile()) {
+                throw new IOException("Unable to store " + archive);
+            }
+        } finally {
+            temporary.delete();
+        }
+        if (remote != null && push && remoteFailure == null) {
+            try {
+                remote.store(archive.getName(), archive);
+            } catch (IOException e) {
+                remoteFailure = e;
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used archives until the cache fits in its maximum size.
+     */
+    private void evict() {
+        final File[] archives = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(ARCHIVE_SUFFIX);
+            }
+        });
+        if (archives == null) {
+            return;
+        }
+        long size = 0;
+        for (File archive : archives) {
+            size += archive.length();
+        }
+        Arrays.sort(archives, new Comparator<File>() {
+            public int compare(File first, File second) {
+                final long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < archives.length && size > maxSize; i++) {
+            final long length = archives[i].length();
+            if (archives[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File getArchive(String key) {
+        return new File(directory, key + ARCHIVE_SUFFIX);
+    }
+
+    /**
+     * A generated source tree restored from the cache.
+     */
+    static final class CachedTree {
+        private final ImmutableSet<String> files;
+        private final ImmutableMap<String, ImmutableSet<String>> outputs;
+        private final boolean fetched;
+
+        CachedTree(ImmutableSet<String> files, ImmutableMap<String, ImmutableSet<String>> outputs, boolean fetched) {
+            this.files = files;
+            this.outputs = outputs;
+            this.fetched = fetched;
+        }
+
+        /**
+         * @return {@code true} if the tree was fetched from the remote cache.
+         */
+        boolean isFetched() {
+            return fetched;
+        }
+
+        /**
+         * @return Every restored file, relative to the output directory.
+         */
+        ImmutableSet<String> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return The generated files of each source, keyed by source path, or an empty map if unknown.
+         */
+        ImmutableMap<String, ImmutableSet<String>> getOutputs() {
+            return outputs;
+        }
+    }
+}
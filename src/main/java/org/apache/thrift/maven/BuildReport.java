@@ -0,0 +1,243 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Collects the duration of each phase of a build, each {@code thrift} invocation and a set of counters.
+ * <p/>
+ * The report can be summarized on a single line, and written as JSON: either as a plain document or in the
+ * Chrome trace event format, which {@code chrome://tracing} and similar tools display as a timeline. All
+ * methods may be called concurrently.
+ */
+final class BuildReport {
+
+    /**
+     * The category of the phases of a build.
+     */
+    static final String PHASE = "phase";
+
+    /**
+     * The category of {@code thrift} invocations.
+     */
+    static final String INVOCATION = "thrift";
+
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final List<Span> spans = newArrayList();
+    private final Map<String, Long> counters = newLinkedHashMap();
+
+    /**
+     * Starts timing an activity. {@link Span#end()} must be called once it completed.
+     *
+     * @param category {@link #PHASE}, {@link #INVOCATION} or another category.
+     * @param name     The name of the phase or the compiled file.
+     */
+    Span start(String category, String name) {
+        return new Span(category, name, Thread.currentThread().getName(), System.nanoTime());
+    }
+
+    /**
+     * Adds {@code delta} to a counter, which starts at zero.
+     */
+    synchronized void count(String counter, long delta) {
+        final Long value = counters.get(counter);
+        counters.put(counter, (value == null ? 0 : value) + delta);
+    }
+
+    /**
+     * @return The value of a counter.
+     */
+    synchronized long getCount(String counter) {
+        final Long value = counters.get(counter);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * @return The completed activities, in the order they completed.
+     */
+    synchronized ImmutableList<Span> getSpans() {
+        return ImmutableList.copyOf(spans);
+    }
+
+    /**
+     * @return The phases with their durations followed by the non-zero counters, e.g.
+     *         {@code 412 ms: discovery 3 ms, compile 360 ms; thriftInvocations 3, cacheHits 1}.
+     */
+    String getSummary() {
+        final StringBuilder summary = new StringBuilder()
+                .append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).append(" ms");
+        String separator = ": ";
+        for (Span span : getSpans()) {
+            if (span.category.equals(PHASE)) {
+                summary.append(separator).append(span.name).append(' ').append(span.getMillis()).append(" ms");
+                separator = ", ";
+            }
+        }
+        separator = "; ";
+        synchronized (this) {
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                if (counter.getValue() != 0) {
+                    summary.append(separator).append(counter.getKey()).append(' ').append(counter.getValue());
+                    separator = ", ";
+                }
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the report as a JSON document holding the start time, the phases, the invocations and the
+     * counters. Times are in milliseconds; the start of each activity is relative to the start of the report.
+     */
+    void writeJson(File file) throws IOException {
+        final StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"start\": ").append(startMillis).append(",\n");
+        json.append("  \"duration\": ").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+                .append(",\n");
+        appendSpans(json, "phases", PHASE);
+        json.append(",\n");
+        appendSpans(json, "invocations", INVOCATION);
+        json.append(",\n  \"counters\": {");
+        String separator = "\n";
+        synchronized (this) {
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                json.append(separator).append("    ").append(quote(counter.getKey())).append(": ")
+                        .append(counter.getValue());
+                separator = ",\n";
+            }
+        }
+        json.append("\n  }\n}\n");
+        write(file, json);
+    }
+
+    /**
+     * Writes the report in the Chrome trace event format: every activity is a complete event on the track
+     * of the thread that ran it, and the counters are the arguments of a final metadata event.
+     */
+    void writeTrace(File file) throws IOException {
+        final StringBuilder json = new StringBuilder("{\"traceEvents\": [");
+        String separator = "\n";
+        for (Span span : getSpans()) {
+            json.append(separator).append("  {\"name\": ").append(quote(span.name))
+                    .append(", \"cat\": ").append(quote(span.category))
+                    .append(", \"ph\": \"X\", \"pid\": 1, \"tid\": ").append(quote(span.thread))
+                    .append(", \"ts\": ").append(TimeUnit.NANOSECONDS.toMicros(span.startNanos - startNanos))
+                    .append(", \"dur\": ").append(TimeUnit.NANOSECONDS.toMicros(span.endNanos - span.startNanos))
+                    .append('}');
+            separator = ",\n";
+        }
+        json.append(separator).append("  {\"name\": \"counters\", \"ph\": \"M\", \"pid\": 1, \"args\": {");
+        separator = "";
+        synchronized (this) {
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                json.append(separator).append(quote(counter.getKey())).append(": ").append(counter.getValue());
+                separator = ", ";
+            }
+        }
+        json.append("}}\n]}\n");
+        write(file, json);
+    }
+
+    private void appendSpans(StringBuilder json, String name, String category) {
+        json.append("  ").append(quote(name)).append(": [");
+        String separator = "\n";
+        for (Span span : getSpans()) {
+            if (span.category.equals(category)) {
+                json.append(separator).append("    {\"name\": ").append(quote(span.name))
+                        .append(", \"thread\": ").append(quote(span.thread))
+                        .append(", \"start\": ").append(TimeUnit.NANOSECONDS.toMillis(span.startNanos - startNanos))
+                        .append(", \"duration\": ").append(span.getMillis()).append('}');
+                separator = ",\n";
+            }
+        }
+        json.append(separator.equals("\n") ? "]" : "\n  ]");
+    }
+
+    private static void write(File file, CharSequence content) throws IOException {
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+    }
+
+    private static String quote(String value) {
+        final StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private synchronized void add(Span span) {
+        spans.add(span);
+    }
+
+    /**
+     * A timed activity.
+     */
+    final class Span {
+        private final String category;
+        private final String name;
+        private final String thread;
+        private final long startNanos;
+        private long endNanos;
+
+        private Span(String category, String name, String thread, long startNanos) {
+            this.category = category;
+            this.name = name;
+            this.thread = thread;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Records the activity as completed.
+         */
+        void end() {
+            endNanos = System.nanoTime();
+            add(this);
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(endNanos - startNanos);
+        }
+    }
+}
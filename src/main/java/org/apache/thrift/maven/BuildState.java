@@ -0,0 +1,417 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newTreeMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.collect.Sets.newTreeSet;
+
+/**
+ * The inputs of a thrift compilation, persisted between builds so that only the sources affected
+ * by a change need to be recompiled.
+ * <p/>
+ * For every compiled source the manifest records the resolved {@code include} closure, and for
+ * every source and included file it records a content hash. The generator, compiler version and
+ * thrift path are recorded as well since a change to any of them affects every generated file.
+ * <p/>
+ * When known, the files generated for every source are recorded too, so that the outputs of
+ * removed sources can be deleted without cleaning the output directory.
+ */
+final class BuildState {
+
+    private static final String GENERATOR = "generator";
+    private static final String COMPILER_VERSION = "compilerVersion";
+    private static final String THRIFT_PATH = "thriftPath";
+    private static final String SOURCE_PREFIX = "source.";
+    private static final String HASH_PREFIX = "hash.";
+    private static final String OUTPUT_PREFIX = "output.";
+
+    private static final Joiner PATH_JOINER = Joiner.on(File.pathSeparatorChar);
+    private static final Splitter PATH_SPLITTER = Splitter.on(File.pathSeparatorChar).omitEmptyStrings();
+    private static final Joiner OUTPUT_JOINER = Joiner.on(';');
+    private static final Splitter OUTPUT_SPLITTER = Splitter.on(';').omitEmptyStrings();
+
+    private final String generator;
+    private final String compilerVersion;
+    private final String thriftPath;
+    private final ImmutableMap<File, ImmutableSet<File>> sources;
+    private final ImmutableMap<File, String> hashes;
+    private final ImmutableMap<File, ImmutableSet<String>> outputs;
+
+    private BuildState(String generator, String compilerVersion, String thriftPath,
+                       ImmutableMap<File, ImmutableSet<File>> sources, ImmutableMap<File, String> hashes,
+                       ImmutableMap<File, ImmutableSet<String>> outputs) {
+        this.generator = checkNotNull(generator, "generator");
+        this.compilerVersion = checkNotNull(compilerVersion, "compilerVersion");
+        this.thriftPath = checkNotNull(thriftPath, "thriftPath");
+        this.sources = checkNotNull(sources, "sources");
+        this.hashes = checkNotNull(hashes, "hashes");
+        this.outputs = checkNotNull(outputs, "outputs");
+    }
+
+    /**
+     * Captures the current state of a set of thrift sources.
+     *
+     * @param generator       The value for the {@code --gen} option.
+     * @param compilerVersion Identifies the {@code thrift} executable, see {@link ThriftCompiler#getFingerprint()}.
+     * @param thriftPath      The thrift path, in the order it is passed to the compiler.
+     * @param thriftFiles     The sources to compile.
+     * @param includes        Used to resolve the include closure of each source.
+     * @return The state of the sources and everything they include.
+     * @throws IOException If a source or included file cannot be read.
+     */
+    static BuildState create(String generator, String compilerVersion, Iterable<File> thriftPath,
+                             Iterable<File> thriftFiles, ThriftIncludes includes) throws IOException {
+        final Map<File, ImmutableSet<File>> sources = newHashMap();
+        final Map<File, String> hashes = newHashMap();
+        for (File thriftFile : thriftFiles) {
+            final File source = ThriftIncludes.normalize(thriftFile);
+            final ImmutableSet<File> closure = includes.getClosure(source);
+            sources.put(source, closure);
+            hash(source, hashes);
+            for (File include : closure) {
+                hash(include, hashes);
+            }
+        }
+        return new BuildState(generator, compilerVersion, PATH_JOINER.join(thriftPath),
+                ImmutableMap.copyOf(sources), ImmutableMap.copyOf(hashes), ImmutableMap.<File, ImmutableSet<String>>of());
+    }
+
+    /**
+     * Records the files generated for each source.
+     *
+     * @param generatedFiles The generated files of each source, relative to the output directory.
+     * @return A copy of this state including the outputs.
+     */
+    BuildState withOutputs(Map<File, ? extends Set<String>> generatedFiles) {
+        final Map<File, ImmutableSet<String>> normalized = newHashMap();
+        for (Map.Entry<File, ? extends Set<String>> generated : generatedFiles.entrySet()) {
+            normalized.put(ThriftIncludes.normalize(generated.getKey()), ImmutableSet.copyOf(generated.getValue()));
+        }
+        return new BuildState(generator, compilerVersion, thriftPath, sources, hashes, ImmutableMap.copyOf(normalized));
+    }
+
+    private static void hash(File file, Map<File, String> hashes) throws IOException {
+        if (!hashes.containsKey(file)) {
+            hashes.put(file, sha1(file));
+        }
+    }
+
+    /**
+     * @return The hex encoded SHA-1 digest of the content of {@code file}.
+     */
+    static String sha1(File file) throws IOException {
+        final MessageDigest digest = newSha1Digest();
+        final byte[] buffer = new byte[8192];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return AbstractThriftMojo.toHexString(digest.digest());
+    }
+
+    /**
+     * Computes a key identifying the generated sources of this state. It covers the generator, the
+     * compiler and plugin versions, and the content of every source and included file, but no absolute
+     * paths, so that identical inputs in another checkout produce the same key.
+     *
+     * @param pluginVersion The version of this plugin.
+     * @param sourceRoots   The directories the source paths are made relative to.
+     * @return The hex encoded SHA-1 fingerprint.
+     */
+    String getFingerprint(String pluginVersion, List<File> sourceRoots) {
+        final SortedMap<String, File> sortedSources = newTreeMap();
+        for (File source : sources.keySet()) {
+            sortedSources.put(getRelativePath(source, sourceRoots), source);
+        }
+        final MessageDigest digest = newSha1Digest();
+        update(digest, generator);
+        update(digest, compilerVersion);
+        update(digest, String.valueOf(pluginVersion));
+        for (Map.Entry<String, File> source : sortedSources.entrySet()) {
+            update(digest, source.getKey());
+            update(digest, hashes.get(source.getValue()));
+            final SortedSet<String> includeHashes = newTreeSet();
+            for (File include : sources.get(source.getValue())) {
+                includeHashes.add(hashes.get(include));
+            }
+            update(digest, Integer.toString(includeHashes.size()));
+            for (String includeHash : includeHashes) {
+                update(digest, includeHash);
+            }
+        }
+        return AbstractThriftMojo.toHexString(digest.digest());
+    }
+
+    /**
+     * @return The path of {@code source} relative to {@code sourceRoot}, using {@code /} as separator, or the
+     *         full path if it is not below the source root.
+     */
+    static String getRelativePath(File source, File sourceRoot) {
+        final String root = ThriftIncludes.normalize(sourceRoot).getPath() + File.separator;
+        final String path = ThriftIncludes.normalize(source).getPath();
+        return (path.startsWith(root) ? path.substring(root.length()) : path).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @return The path of {@code source} relative to the first of the source roots containing it, prefixed with
+     *         the index of that root when there are several, e.g. {@code 1/shared.thrift}, or the full path if it
+     *         is not below any of them.
+     */
+    static String getRelativePath(File source, List<File> sourceRoots) {
+        if (sourceRoots.size() == 1) {
+            return getRelativePath(source, sourceRoots.get(0));
+        }
+        final int index = getSourceRootIndex(source, sourceRoots);
+        return index < 0 ? ThriftIncludes.normalize(source).getPath().replace(File.separatorChar, '/')
+                : index + "/" + getRelativePath(source, sourceRoots.get(index));
+    }
+
+    /**
+     * @return The source denoted by a path returned by {@link #getRelativePath(File, List)}.
+     */
+    static File resolve(String relativePath, List<File> sourceRoots) {
+        if (sourceRoots.size() == 1) {
+            return new File(sourceRoots.get(0), relativePath);
+        }
+        final int slash = relativePath.indexOf('/');
+        if (slash <= 0 || !CharMatcher.DIGIT.matchesAllOf(relativePath.substring(0, slash))) {
+            return new File(relativePath);
+        }
+        return new File(sourceRoots.get(Integer.parseInt(relativePath.substring(0, slash))),
+                relativePath.substring(slash + 1));
+    }
+
+    /**
+     * @return The index of the first of the source roots containing {@code source}, or {@code -1}.
+     */
+    static int getSourceRootIndex(File source, List<File> sourceRoots) {
+        final String path = ThriftIncludes.normalize(source).getPath();
+        for (int i = 0; i < sourceRoots.size(); i++) {
+            if (path.startsWith(ThriftIncludes.normalize(sourceRoots.get(i)).getPath() + File.separator)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(Charsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newSha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a manifest written by {@link #write(File)}.
+     *
+     * @return The previous state, or {@code null} if there is none or it cannot be read.
+     */
+    static BuildState read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        final String generator = properties.getProperty(GENERATOR);
+        final String compilerVersion = properties.getProperty(COMPILER_VERSION);
+        final String thriftPath = properties.getProperty(THRIFT_PATH);
+        if (generator == null || compilerVersion == null || thriftPath == null) {
+            return null;
+        }
+
+        final Map<File, ImmutableSet<File>> sources = newHashMap();
+        final Map<File, String> hashes = newHashMap();
+        final Map<File, ImmutableSet<String>> outputs = newHashMap();
+        for (String key : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(key);
+            if (key.startsWith(SOURCE_PREFIX)) {
+                final Set<File> closure = newHashSet();
+                for (String include : PATH_SPLITTER.split(value)) {
+                    closure.add(new File(include));
+                }
+                sources.put(new File(key.substring(SOURCE_PREFIX.length())), ImmutableSet.copyOf(closure));
+            } else if (key.startsWith(HASH_PREFIX)) {
+                hashes.put(new File(key.substring(HASH_PREFIX.length())), value);
+            } else if (key.startsWith(OUTPUT_PREFIX)) {
+                outputs.put(new File(key.substring(OUTPUT_PREFIX.length())),
+                        ImmutableSet.copyOf(OUTPUT_SPLITTER.split(value)));
+            }
+        }
+        return new BuildState(generator, compilerVersion, thriftPath,
+                ImmutableMap.copyOf(sources), ImmutableMap.copyOf(hashes), ImmutableMap.copyOf(outputs));
+    }
+
+    /**
+     * Persists this state.
+     *
+     * @throws IOException If the manifest cannot be written.
+     */
+    void write(File file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(GENERATOR, generator);
+        properties.setProperty(COMPILER_VERSION, compilerVersion);
+        properties.setProperty(THRIFT_PATH, thriftPath);
+        for (Map.Entry<File, ImmutableSet<File>> source : sources.entrySet()) {
+            properties.setProperty(SOURCE_PREFIX + source.getKey().getPath(), PATH_JOINER.join(source.getValue()));
+        }
+        for (Map.Entry<File, String> hash : hashes.entrySet()) {
+            properties.setProperty(HASH_PREFIX + hash.getKey().getPath(), hash.getValue());
+        }
+        for (Map.Entry<File, ImmutableSet<String>> output : outputs.entrySet()) {
+            properties.setProperty(OUTPUT_PREFIX + output.getKey().getPath(), OUTPUT_JOINER.join(output.getValue()));
+        }
+
+        file.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "thrift-maven-plugin build state");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return {@code true} if the outputs of {@code previous} can be reused, i.e. the generator, compiler and
+     *         thrift path are unchanged and no source has been removed, unless the outputs of every removed
+     *         source are known.
+     */
+    boolean isCompatibleWith(BuildState previous) {
+        return previous != null
+                && generator.equals(previous.generator)
+                && compilerVersion.equals(previous.compilerVersion)
+                && thriftPath.equals(previous.thriftPath)
+                && previous.outputs.keySet().containsAll(getRemovedSources(previous));
+    }
+
+    /**
+     * @return {@code true} if the generated files of every source are recorded.
+     */
+    boolean hasOutputs() {
+        return outputs.keySet().containsAll(sources.keySet());
+    }
+
+    /**
+     * @return The files generated for {@code source}, relative to the output directory, or an empty set
+     *         if they were not recorded.
+     */
+    ImmutableSet<String> getOutputs(File source) {
+        final ImmutableSet<String> result = outputs.get(source);
+        return result == null ? ImmutableSet.<String>of() : result;
+    }
+
+    /**
+     * @return The compiled sources, normalized.
+     */
+    ImmutableSet<File> getSources() {
+        return sources.keySet();
+    }
+
+    /**
+     * @return The files {@code source} (transitively) includes, or an empty set if it is not a source.
+     */
+    ImmutableSet<File> getClosure(File source) {
+        final ImmutableSet<File> result = sources.get(source);
+        return result == null ? ImmutableSet.<File>of() : result;
+    }
+
+    /**
+     * @return The sources of {@code previous} that are no longer compiled.
+     */
+    ImmutableSet<File> getRemovedSources(BuildState previous) {
+        return ImmutableSet.copyOf(Sets.difference(previous.sources.keySet(), sources.keySet()));
+    }
+
+    /**
+     * Finds the sources that must be recompiled: new sources, sources whose content changed and sources
+     * that (transitively) include a file that was added, removed or changed.
+     *
+     * @param previous A state for which {@link #isCompatibleWith(BuildState)} holds.
+     * @return The stale sources.
+     */
+    ImmutableSet<File> getStaleSources(BuildState previous) {
+        final Set<File> stale = newHashSet();
+        for (Map.Entry<File, ImmutableSet<File>> source : sources.entrySet()) {
+            final File thriftFile = source.getKey();
+            if (!source.getValue().equals(previous.sources.get(thriftFile)) || isChanged(thriftFile, previous)) {
+                stale.add(thriftFile);
+                continue;
+            }
+            for (File include : source.getValue()) {
+                if (isChanged(include, previous)) {
+                    stale.add(thriftFile);
+                    break;
+                }
+            }
+        }
+        return ImmutableSet.copyOf(stale);
+    }
+
+    private boolean isChanged(File file, BuildState previous) {
+        return !Objects.equal(hashes.get(file), previous.hashes.get(file));
+    }
+}
@@ -0,0 +1,170 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * The history of how long {@code thrift} took to compile each file, used to start the longest invocations first
+ * so that the last invocation of a build does not run alone while the other threads are idle.
+ * <p/>
+ * Files are identified by their path relative to the thrift path, and the size of each file is recorded with its
+ * duration. A file without history is estimated from its size, at the average rate of the recorded files: with no
+ * history at all the largest files start first. All methods may be called concurrently.
+ */
+final class CompileDurations {
+
+    private static final char SEPARATOR = ',';
+
+    private final ConcurrentMap<String, Duration> durations = new ConcurrentHashMap<String, Duration>();
+
+    /**
+     * Reads the durations written by {@link #write(File)}, ignoring malformed entries.
+     *
+     * @return The durations, empty if the file does not exist.
+     */
+    static CompileDurations read(File file) throws IOException {
+        final CompileDurations history = new CompileDurations();
+        if (!file.isFile()) {
+            return history;
+        }
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String name : properties.stringPropertyNames()) {
+            final String value = properties.getProperty(name);
+            final int separator = value.indexOf(SEPARATOR);
+            try {
+                history.record(name, Long.parseLong(value.substring(0, Math.max(separator, 0))),
+                        Long.parseLong(value.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                // recompiling the file records its duration again
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Records the duration of an invocation, replacing the previous one.
+     *
+     * @param name   The path of the compiled file relative to the thrift path.
+     * @param millis The duration of the invocation.
+     * @param size   The size of the compiled file, in bytes.
+     */
+    void record(String name, long millis, long size) {
+        durations.put(name, new Duration(millis, size));
+    }
+
+    /**
+     * @return The recorded duration of a file, or {@code -1}.
+     */
+    long getMillis(String name) {
+        final Duration duration = durations.get(name);
+        return duration == null ? -1 : duration.millis;
+    }
+
+    /**
+     * Orders files longest first, by their recorded duration or the estimate from their size. Files with the same
+     * estimate keep their order.
+     *
+     * @param names The path of each file relative to the thrift path.
+     */
+    ImmutableList<File> sortLongestFirst(Map<File, String> names) {
+        long totalMillis = 0;
+        long totalSize = 0;
+        for (Duration recorded : durations.values()) {
+            totalMillis += recorded.millis;
+            totalSize += recorded.size;
+        }
+        final double millisPerByte = totalSize > 0 ? (double) totalMillis / totalSize : 1;
+        final Map<File, Double> estimates = newHashMap();
+        for (Map.Entry<File, String> name : names.entrySet()) {
+            final Duration duration = durations.get(name.getValue());
+            estimates.put(name.getKey(),
+                    duration != null ? duration.millis : name.getKey().length() * millisPerByte);
+        }
+        final List<File> files = newArrayList(names.keySet());
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File first, File second) {
+                return Double.compare(estimates.get(second), estimates.get(first));
+            }
+        });
+        return ImmutableList.copyOf(files);
+    }
+
+    /**
+     * Writes the durations, to a temporary file that is renamed so that concurrent builds never read a partial
+     * history.
+     */
+    void write(File file) throws IOException {
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Duration> duration : durations.entrySet()) {
+            properties.setProperty(duration.getKey(),
+                    Long.toString(duration.getValue().millis) + SEPARATOR + duration.getValue().size);
+        }
+        Files.createParentDirs(file);
+        final File temporaryFile = new File(file.getParentFile(), file.getName() + '.' + UUID.randomUUID());
+        final OutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            properties.store(out, "thrift compile durations in milliseconds, and file sizes");
+        } finally {
+            out.close();
+        }
+        if (!temporaryFile.renameTo(file)) {
+            file.delete();
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    private static final class Duration {
+        private final long millis;
+        private final long size;
+
+        Duration(long millis, long size) {
+            this.millis = millis;
+            this.size = size;
+        }
+    }
+}
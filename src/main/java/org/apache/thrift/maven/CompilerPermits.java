@@ -0,0 +1,103 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounds the number of {@code thrift} processes that run at the same time.
+ * <p/>
+ * The {@link #getShared(Object, int) shared} instance of a build is used by every execution of the plugin in
+ * that build, so the bound holds for a parallel reactor build ({@code mvn -T}) as a whole. Permits are handed
+ * out in the order they were requested.
+ */
+final class CompilerPermits {
+
+    /**
+     * The shared instances, keyed by the Maven session of the build using them.
+     */
+    private static final Map<Object, CompilerPermits> SHARED = new WeakHashMap<Object, CompilerPermits>();
+
+    /**
+     * The key used for executions without a session, e.g. in tests.
+     */
+    private static final Object NO_SESSION = new Object();
+
+    private final Semaphore semaphore;
+    private final int permits;
+
+    /**
+     * @param permits The maximum number of concurrent processes.
+     */
+    CompilerPermits(int permits) {
+        checkArgument(permits > 0, "permits must be positive");
+        this.semaphore = new Semaphore(permits, true);
+        this.permits = permits;
+    }
+
+    /**
+     * Returns the permits shared by every execution of a build. The first execution determines their number;
+     * later executions share them even if they are configured with another number, see {@link #getPermits()}.
+     *
+     * @param session The Maven session of the build, or {@code null}.
+     * @param permits The maximum number of concurrent processes, used if the build has no shared instance yet.
+     */
+    static synchronized CompilerPermits getShared(Object session, int permits) {
+        final Object key = session == null ? NO_SESSION : session;
+        CompilerPermits shared = SHARED.get(key);
+        if (shared == null) {
+            shared = new CompilerPermits(permits);
+            SHARED.put(key, shared);
+        }
+        return shared;
+    }
+
+    /**
+     * Waits until a process may be started.
+     *
+     * @return The time spent waiting, in nanoseconds, or {@code 0} if a permit was available.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    long acquire() throws InterruptedException {
+        // tryAcquire() would take a permit ahead of the waiting threads
+        final boolean contended = semaphore.availablePermits() == 0 || semaphore.hasQueuedThreads();
+        final long start = System.nanoTime();
+        semaphore.acquire();
+        return contended ? System.nanoTime() - start : 0;
+    }
+
+    /**
+     * Releases a permit obtained from {@link #acquire()}.
+     */
+    void release() {
+        semaphore.release();
+    }
+
+    /**
+     * @return The maximum number of concurrent processes.
+     */
+    int getPermits() {
+        return permits;
+    }
+}
@@ -0,0 +1,153 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Runs an executable directly with a {@link ProcessBuilder}, without a shell wrapper, and passes each
+ * line it prints to a {@link StreamConsumer} as soon as it is read.
+ * <p/>
+ * Both streams are read by threads of a shared pool, so launching a process does not create threads.
+ * When the calling thread is interrupted the process is destroyed.
+ */
+final class CompilerProcess {
+
+    private static final ExecutorService STREAM_READERS = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("thrift-output-%d").setDaemon(true).build());
+
+    private CompilerProcess() {
+    }
+
+    /**
+     * Runs a command and waits for it to exit.
+     *
+     * @param command The executable followed by its arguments.
+     * @param output  Receives the lines printed to standard output.
+     * @param error   Receives the lines printed to standard error.
+     * @return The exit status of the process.
+     * @throws CommandLineException If the process cannot be started, or the calling thread is interrupted.
+     */
+    static int run(List<String> command, StreamConsumer output, StreamConsumer error) throws CommandLineException {
+        final Process process;
+        try {
+            process = new ProcessBuilder(ImmutableList.copyOf(command)).start();
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to run " + command.get(0), e);
+        }
+        try {
+            process.getOutputStream().close();
+            final Future<Void> outputReader = STREAM_READERS.submit(new StreamReader(process.getInputStream(), output));
+            final Future<Void> errorReader = STREAM_READERS.submit(new StreamReader(process.getErrorStream(), error));
+            final int result = process.waitFor();
+            outputReader.get();
+            errorReader.get();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while waiting for " + command.get(0), e);
+        } catch (ExecutionException e) {
+            throw new CommandLineException("Unable to read the output of " + command.get(0), e.getCause());
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to run " + command.get(0), e);
+        } finally {
+            // a no-op once the process exited; otherwise this also ends the stream readers
+            process.destroy();
+        }
+    }
+
+    /**
+     * Passes every line of a stream to a consumer.
+     */
+    private static final class StreamReader implements Callable<Void> {
+        private final InputStream in;
+        private final StreamConsumer consumer;
+
+        StreamReader(InputStream in, StreamConsumer consumer) {
+            this.in = in;
+            this.consumer = consumer;
+        }
+
+        public Void call() throws IOException {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    consumer.consumeLine(line);
+                }
+            } finally {
+                reader.close();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the last lines it consumed.
+     */
+    static final class Tail implements StreamConsumer {
+        private final int maxLines;
+        private final Deque<String> lines = new ArrayDeque<String>();
+
+        /**
+         * @param maxLines The number of lines to keep.
+         */
+        Tail(int maxLines) {
+            checkArgument(maxLines > 0, "maxLines must be positive");
+            this.maxLines = maxLines;
+        }
+
+        public synchronized void consumeLine(String line) {
+            if (lines.size() == maxLines) {
+                lines.removeFirst();
+            }
+            lines.addLast(line);
+        }
+
+        /**
+         * @return The kept lines, each followed by a line separator.
+         */
+        synchronized String getOutput() {
+            final StringBuilder result = new StringBuilder();
+            for (String line : lines) {
+                result.append(line).append(System.getProperty("line.separator"));
+            }
+            return result.toString();
+        }
+    }
+}
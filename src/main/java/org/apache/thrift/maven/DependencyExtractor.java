@@ -0,0 +1,356 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.io.RawInputStreamFacade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.lang.String.format;
+import static org.codehaus.plexus.util.FileUtils.cleanDirectory;
+import static org.codehaus.plexus.util.FileUtils.copyStreamToFile;
+
+/**
+ * Extracts thrift files from dependency jars, reusing the files extracted by previous builds.
+ * <p/>
+ * An index stored in the extraction directory records the size and modification time of every jar
+ * together with the CRC-32 of each extracted entry, as listed in the jar's central directory. Jars
+ * whose size and modification time are unchanged are not opened at all, the others are listed with
+ * a {@link JarScanner}, and entries whose CRC matches the previously extracted copy are not inflated
+ * again. A jar is only opened as a {@link JarFile} when an entry actually needs to be extracted.
+ * Files whose entries (or jars) disappeared are deleted by {@link #finish()}.
+ */
+final class DependencyExtractor {
+
+    private static final String THRIFT_FILE_SUFFIX = ".thrift";
+
+    private static final String INDEX_FILE = ".index";
+
+    private static final String SIZE_PREFIX = "size.";
+    private static final String MODIFIED_PREFIX = "modified.";
+    private static final String TARGET_PREFIX = "target.";
+    private static final String COMPLETE_PREFIX = "complete.";
+    private static final String CRC_PREFIX = "crc.";
+    private static final String ENTRY_SEPARATOR = "!/";
+
+    private final File directory;
+    private final Map<File, JarRecord> previous;
+    private final Map<File, JarRecord> current = newLinkedHashMap();
+    private final Map<File, JarFile> openJars = newHashMap();
+    private final Map<File, ImmutableMap<String, JarScanner.Entry>> listings = newHashMap();
+    private final JarScanner scanner = new JarScanner(THRIFT_FILE_SUFFIX);
+    private int extractedFiles;
+    private long extractedBytes;
+
+    private DependencyExtractor(File directory, Map<File, JarRecord> previous) {
+        this.directory = directory;
+        this.previous = previous;
+    }
+
+    /**
+     * Opens the extraction directory. When it holds files but no index, it is cleaned to ensure that
+     * stale files aren't used.
+     *
+     * @param directory The directory the thrift files are extracted to.
+     * @return The extractor.
+     * @throws IOException If the directory cannot be cleaned.
+     */
+    static DependencyExtractor open(File directory) throws IOException {
+        final Map<File, JarRecord> previous = readIndex(new File(directory, INDEX_FILE));
+        if (previous.isEmpty() && directory.exists()) {
+            cleanDirectory(directory);
+        }
+        return new DependencyExtractor(directory, previous);
+    }
+
+    /**
+     * Lists, concurrently, the jars that cannot be reused as they are, so that {@link #extractAll(File, File)}
+     * does not have to scan them one at a time.
+     *
+     * @param jars    The jars that are about to be extracted.
+     * @param threads The maximum number of jars scanned at the same time.
+     * @throws IOException If a jar cannot be read.
+     */
+    void scan(Iterable<File> jars, int threads) throws IOException {
+        final List<File> changed = newArrayList();
+        for (File jar : jars) {
+            final JarRecord old = previous.get(jar);
+            if (old == null || !old.complete || !isUnchanged(jar, old)) {
+                changed.add(jar);
+            }
+        }
+        listings.putAll(scanner.scan(changed, threads));
+    }
+
+    /**
+     * Makes sure every thrift entry of {@code jar} is extracted below {@code target}.
+     *
+     * @param jar    The dependency jar.
+     * @param target The directory the entries are extracted to.
+     * @return The names of the thrift entries in the jar.
+     * @throws IOException If the jar cannot be read or an entry cannot be extracted.
+     */
+    ImmutableSet<String> extractAll(File jar, File target) throws IOException {
+        final JarRecord record = getRecord(jar, target);
+        final JarRecord old = previous.get(jar);
+        if (old != null && old.complete && isUnchanged(jar, old) && old.isExtracted()) {
+            record.crcs.putAll(old.crcs);
+        } else {
+            ImmutableMap<String, JarScanner.Entry> entries = listings.get(jar);
+            if (entries == null) {
+                entries = scanner.scan(jar);
+            }
+            for (JarScanner.Entry entry : entries.values()) {
+                extract(jar, entry, record, old);
+            }
+        }
+        record.complete = true;
+        return ImmutableSet.copyOf(record.crcs.keySet());
+    }
+
+    /**
+     * Makes sure a single thrift entry of {@code jar} is extracted below {@code target}.
+     *
+     * @param jar    The dependency jar.
+     * @param entry  The central directory record of the entry.
+     * @param target The directory the entry is extracted to.
+     * @return The extracted file.
+     * @throws IOException If the jar cannot be read or the entry cannot be extracted.
+     */
+    File extract(File jar, JarScanner.Entry entry, File target) throws IOException {
+        final JarRecord record = getRecord(jar, target);
+        if (!record.crcs.containsKey(entry.getName())) {
+            extract(jar, entry, record, previous.get(jar));
+        }
+        return new File(target, entry.getName());
+    }
+
+    /**
+     * Deletes the files that were extracted by a previous build but not requested by this one, and
+     * saves the index.
+     *
+     * @throws IOException If the index cannot be written.
+     */
+    void finish() throws IOException {
+        for (Map.Entry<File, JarRecord> old : previous.entrySet()) {
+            final JarRecord record = current.get(old.getKey());
+            for (String entry : old.getValue().crcs.keySet()) {
+                if (record == null || !record.target.equals(old.getValue().target)
+                        || !record.crcs.containsKey(entry)) {
+                    delete(new File(old.getValue().target, entry));
+                }
+            }
+        }
+        writeIndex(new File(directory, INDEX_FILE));
+    }
+
+    /**
+     * Closes the jars opened during extraction.
+     *
+     * @throws IOException If a jar cannot be closed.
+     */
+    void close() throws IOException {
+        for (JarFile jarFile : openJars.values()) {
+            jarFile.close();
+        }
+        openJars.clear();
+    }
+
+    /**
+     * @return The number of jars listed, i.e. the jars whose previous extraction could not be reused.
+     */
+    int getScannedJars() {
+        return scanner.getScannedJars();
+    }
+
+    /**
+     * @return The number of files written, i.e. the entries whose previous extraction could not be reused.
+     */
+    int getExtractedFiles() {
+        return extractedFiles;
+    }
+
+    /**
+     * @return The size of the files written.
+     */
+    long getExtractedBytes() {
+        return extractedBytes;
+    }
+
+    private JarRecord getRecord(File jar, File target) {
+        JarRecord record = current.get(jar);
+        if (record == null) {
+            record = new JarRecord(jar.length(), jar.lastModified(), target);
+            current.put(jar, record);
+        }
+        return record;
+    }
+
+    private static boolean isUnchanged(File jar, JarRecord record) {
+        return record.size == jar.length() && record.modified == jar.lastModified();
+    }
+
+    private JarFile openJar(File jar) {
+        JarFile classpathJar = openJars.get(jar);
+        if (classpathJar == null) {
+            // the constructor validates.
+            try {
+                classpathJar = new JarFile(jar);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(format("%s was not a readable artifact", jar));
+            }
+            openJars.put(jar, classpathJar);
+        }
+        return classpathJar;
+    }
+
+    private void extract(File jar, JarScanner.Entry entry, JarRecord record, JarRecord old) throws IOException {
+        final String name = entry.getName();
+        final File uncompressedCopy = new File(record.target, name);
+        final Long oldCrc = old == null || !old.target.equals(record.target) ? null : old.crcs.get(name);
+        if (oldCrc == null || oldCrc != entry.getCrc() || !uncompressedCopy.isFile()
+                || (entry.getSize() != -1 && uncompressedCopy.length() != entry.getSize())) {
+            final JarFile classpathJar = openJar(jar);
+            final JarEntry jarEntry = classpathJar.getJarEntry(name);
+            if (jarEntry == null) {
+                // the jar was replaced after it was listed
+                throw new IOException(format("%s no longer contains %s", jar, name));
+            }
+            uncompressedCopy.getParentFile().mkdirs();
+            copyStreamToFile(new RawInputStreamFacade(classpathJar.getInputStream(jarEntry)), uncompressedCopy);
+            extractedFiles++;
+            extractedBytes += uncompressedCopy.length();
+        }
+        record.crcs.put(name, entry.getCrc());
+    }
+
+    private void delete(File file) {
+        file.delete();
+        // remove directories left empty, but never the extraction directory itself
+        File parent = file.getParentFile();
+        while (parent != null && !parent.equals(directory) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+    }
+
+    private static Map<File, JarRecord> readIndex(File indexFile) throws IOException {
+        final Map<File, JarRecord> records = newLinkedHashMap();
+        if (!indexFile.isFile()) {
+            return records;
+        }
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(indexFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(TARGET_PREFIX)) {
+                    final String jar = key.substring(TARGET_PREFIX.length());
+                    final JarRecord record = new JarRecord(
+                            Long.parseLong(properties.getProperty(SIZE_PREFIX + jar)),
+                            Long.parseLong(properties.getProperty(MODIFIED_PREFIX + jar)),
+                            new File(properties.getProperty(key)));
+                    record.complete = Boolean.parseBoolean(properties.getProperty(COMPLETE_PREFIX + jar));
+                    records.put(new File(jar), record);
+                }
+            }
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(CRC_PREFIX)) {
+                    final int separator = key.indexOf(ENTRY_SEPARATOR);
+                    final JarRecord record = records.get(new File(key.substring(CRC_PREFIX.length(), separator)));
+                    if (record != null) {
+                        record.crcs.put(key.substring(separator + ENTRY_SEPARATOR.length()),
+                                Long.parseLong(properties.getProperty(key)));
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // a corrupt index is treated like a missing one.
+            records.clear();
+        }
+        return records;
+    }
+
+    private void writeIndex(File indexFile) throws IOException {
+        final Properties properties = new Properties();
+        for (Map.Entry<File, JarRecord> entry : current.entrySet()) {
+            final String jar = entry.getKey().getPath();
+            final JarRecord record = entry.getValue();
+            properties.setProperty(SIZE_PREFIX + jar, Long.toString(record.size));
+            properties.setProperty(MODIFIED_PREFIX + jar, Long.toString(record.modified));
+            properties.setProperty(TARGET_PREFIX + jar, record.target.getPath());
+            properties.setProperty(COMPLETE_PREFIX + jar, Boolean.toString(record.complete));
+            for (Map.Entry<String, Long> crc : record.crcs.entrySet()) {
+                properties.setProperty(CRC_PREFIX + jar + ENTRY_SEPARATOR + crc.getKey(), Long.toString(crc.getValue()));
+            }
+        }
+        indexFile.getParentFile().mkdirs();
+        final OutputStream out = new FileOutputStream(indexFile);
+        try {
+            properties.store(out, "thrift-maven-plugin extracted dependencies");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * What is known about a jar and the entries extracted from it.
+     */
+    private static final class JarRecord {
+        private final long size;
+        private final long modified;
+        private final File target;
+        private final Map<String, Long> crcs = newLinkedHashMap();
+        private boolean complete;
+
+        JarRecord(long size, long modified, File target) {
+            this.size = size;
+            this.modified = modified;
+            this.target = target;
+        }
+
+        boolean isExtracted() {
+            for (String entry : crcs.keySet()) {
+                if (!new File(target, entry).isFile()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
+
+/**
+ * An index of the thrift files contained in the dependency classpath elements, used to resolve
+ * includes without extracting every thrift file first.
+ * <p/>
+ * The index mirrors the thrift path built from dependencies: for a jar or a directory every directory
+ * containing a thrift file is an include root.
+ */
+final class DependencyIndex {
+
+    private static final String THRIFT_FILE_SUFFIX = ".thrift";
+
+    private final ImmutableList<File> classpathElements;
+    private final ImmutableMap<File, ImmutableSet<String>> entries;
+    private final ImmutableMap<File, ImmutableSet<String>> roots;
+    private final ImmutableMap<File, ImmutableMap<String, JarScanner.Entry>> jarEntries;
+
+    private DependencyIndex(ImmutableList<File> classpathElements, ImmutableMap<File, ImmutableSet<String>> entries,
+                            ImmutableMap<File, ImmutableSet<String>> roots,
+                            ImmutableMap<File, ImmutableMap<String, JarScanner.Entry>> jarEntries) {
+        this.classpathElements = classpathElements;
+        this.entries = entries;
+        this.roots = roots;
+        this.jarEntries = jarEntries;
+    }
+
+    /**
+     * Lists the thrift files of every classpath element. Elements without thrift files are not indexed.
+     *
+     * @param classpathElementFiles The dependency jars and directories, in classpath order.
+     * @param threads               The maximum number of jars scanned concurrently.
+     * @param directoryIndex        Finds the thrift files below the directories.
+     * @return The index.
+     * @throws IOException If a jar cannot be read.
+     */
+    static DependencyIndex create(Iterable<File> classpathElementFiles, int threads, DirectoryIndex directoryIndex)
+            throws IOException {
+        checkNotNull(classpathElementFiles, "classpathElementFiles");
+        final List<File> jars = newArrayList();
+        for (File classpathElementFile : classpathElementFiles) {
+            if (isJar(classpathElementFile)) {
+                jars.add(classpathElementFile);
+            }
+        }
+        final ImmutableMap<File, ImmutableMap<String, JarScanner.Entry>> jarEntries =
+                new JarScanner(THRIFT_FILE_SUFFIX).scan(jars, threads);
+
+        final List<File> classpathElements = newArrayList();
+        final Map<File, ImmutableSet<String>> entries = newHashMap();
+        final Map<File, ImmutableSet<String>> roots = newHashMap();
+        for (File classpathElementFile : classpathElementFiles) {
+            final Set<String> thriftEntries = newLinkedHashSet();
+            final Set<String> thriftRoots = newLinkedHashSet();
+            if (jarEntries.containsKey(classpathElementFile)) {
+                for (String name : jarEntries.get(classpathElementFile).keySet()) {
+                    thriftEntries.add(name);
+                    thriftRoots.add(parent(name));
+                }
+            } else if (classpathElementFile.isDirectory()) {
+                for (String name : directoryIndex.getThriftFiles(classpathElementFile)) {
+                    thriftEntries.add(name);
+                    thriftRoots.add(parent(name));
+                }
+            }
+            if (!thriftEntries.isEmpty()) {
+                classpathElements.add(classpathElementFile);
+                entries.put(classpathElementFile, ImmutableSet.copyOf(thriftEntries));
+                roots.put(classpathElementFile, ImmutableSet.copyOf(thriftRoots));
+            }
+        }
+        return new DependencyIndex(ImmutableList.copyOf(classpathElements),
+                ImmutableMap.copyOf(entries), ImmutableMap.copyOf(roots), jarEntries);
+    }
+
+    /**
+     * @return {@code true} if the classpath element is an archive that may contain thrift files.
+     */
+    static boolean isJar(File classpathElementFile) {
+        // for some reason under IAM, we receive poms as dependent files
+        // I am excluding .xml rather than including .jar as there may be other extensions in use (sar, har, zip)
+        return classpathElementFile.isFile() && classpathElementFile.canRead() &&
+                !classpathElementFile.getName().endsWith(".xml");
+    }
+
+    /**
+     * Resolves an include against the include roots of every indexed element, in classpath order.
+     *
+     * @param include The included path as written in the thrift file.
+     * @return The matching entry, or {@code null} if no dependency provides the file.
+     */
+    Location find(String include) {
+        for (File classpathElement : classpathElements) {
+            for (String root : roots.get(classpathElement)) {
+                final Location location = locate(classpathElement, root, join(root, include));
+                if (location != null) {
+                    return location;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves an include relative to the directory of an entry, the first place {@code thrift} looks.
+     *
+     * @param from    The entry containing the include statement.
+     * @param include The included path as written in the thrift file.
+     * @return The matching entry in the same classpath element, or {@code null}.
+     */
+    Location findSibling(Location from, String include) {
+        return locate(from.getClasspathElement(), null, join(parent(from.getEntry()), include));
+    }
+
+    /**
+     * @return The number of jars listed while creating the index.
+     */
+    int getScannedJars() {
+        return jarEntries.size();
+    }
+
+    /**
+     * @return The indexed classpath elements, i.e. those containing at least one thrift file.
+     */
+    ImmutableList<File> getClasspathElements() {
+        return classpathElements;
+    }
+
+    /**
+     * @return The names of the thrift files in {@code classpathElement}.
+     */
+    ImmutableSet<String> getEntries(File classpathElement) {
+        final ImmutableSet<String> result = entries.get(classpathElement);
+        return result == null ? ImmutableSet.<String>of() : result;
+    }
+
+    /**
+     * @return The include roots of {@code classpathElement}, in the order they appear on the full thrift path.
+     */
+    ImmutableSet<String> getRoots(File classpathElement) {
+        final ImmutableSet<String> result = roots.get(classpathElement);
+        return result == null ? ImmutableSet.<String>of() : result;
+    }
+
+    /**
+     * @return The central directory record of a jar entry, or {@code null} if the location is not in a jar.
+     */
+    JarScanner.Entry getJarEntry(Location location) {
+        final ImmutableMap<String, JarScanner.Entry> jarEntryMap = jarEntries.get(location.getClasspathElement());
+        return jarEntryMap == null ? null : jarEntryMap.get(location.getEntry());
+    }
+
+    private Location locate(File classpathElement, String root, String entry) {
+        return entry != null && entries.get(classpathElement).contains(entry)
+                ? new Location(classpathElement, root, entry) : null;
+    }
+
+    private static String parent(String entry) {
+        final int slash = entry.lastIndexOf('/');
+        return slash == -1 ? "" : entry.substring(0, slash);
+    }
+
+    private static String join(String directory, String include) {
+        final String path = directory.length() == 0 ? include : directory + '/' + include;
+        return FileUtils.normalize(path.replace('\\', '/'));
+    }
+
+    /**
+     * A thrift file within a classpath element.
+     */
+    static final class Location {
+        private final File classpathElement;
+        private final String root;
+        private final String entry;
+
+        Location(File classpathElement, String root, String entry) {
+            this.classpathElement = classpathElement;
+            this.root = root;
+            this.entry = entry;
+        }
+
+        /**
+         * @return The jar or directory containing the file.
+         */
+        File getClasspathElement() {
+            return classpathElement;
+        }
+
+        /**
+         * @return The include root the file was found under, or {@code null} if it was found next to
+         *         the including file and needs no thrift path element.
+         */
+        String getRoot() {
+            return root;
+        }
+
+        /**
+         * @return The path of the file within the classpath element.
+         */
+        String getEntry() {
+            return entry;
+        }
+    }
+}
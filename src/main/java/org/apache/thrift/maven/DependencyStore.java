@@ -0,0 +1,486 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.io.ByteStreams;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static java.lang.String.format;
+
+/**
+ * A machine wide store of the thrift files contained in dependency jars.
+ * <p/>
+ * Each jar is extracted once into {@code artifacts/<coordinates>/<jar checksum>} and the thrift
+ * path points into that directory, so modules and checkouts depending on the same artifact share
+ * one copy. Files are written to a content addressed {@code blobs} directory and hard linked into
+ * the artifact directories, so identical files across artifact versions are stored once. Extracted
+ * files are read-only, since a write through one link would change every artifact sharing the blob.
+ * <p/>
+ * A directory is only published, by an atomic rename, once it is complete. This makes the store
+ * safe to use from concurrent builds. Using an artifact directory touches the modification time of
+ * its marker file, and once the blobs exceed the configured size the least recently used artifacts
+ * are evicted, together with the blobs no artifact refers to anymore.
+ * <p/>
+ * The checksum naming the artifact directory of a jar is recorded in {@code checksums}, keyed by the
+ * path, size and modification time of the jar, so that an unchanged jar is not read again.
+ */
+final class DependencyStore {
+
+    private static final String THRIFT_FILE_SUFFIX = ".thrift";
+
+    private static final String ARTIFACTS = "artifacts";
+
+    private static final String BLOBS = "blobs";
+
+    private static final String CHECKSUMS = "checksums";
+
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private static final String STAGING_SUFFIX = ".tmp";
+
+    /**
+     * How old an unreferenced blob must be to be evicted, so that the blobs of an artifact being
+     * extracted by a concurrent build are kept until it is published.
+     */
+    private static final long BLOB_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The number of extractions remembered by a JVM, which bounds the memory of long running builds and IDEs.
+     */
+    private static final int MAX_EXTRACTIONS = 4096;
+
+    /**
+     * The extractions made in this JVM, keyed by jar path, size and modification time.
+     */
+    private static final Map<String, Extraction> EXTRACTIONS = Collections.synchronizedMap(
+            new LinkedHashMap<String, Extraction>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Extraction> eldest) {
+                    return size() > MAX_EXTRACTIONS;
+                }
+            });
+
+    private final File directory;
+    private final long maxSize;
+    private final JarScanner scanner = new JarScanner(THRIFT_FILE_SUFFIX);
+    private final AtomicInteger extractedFiles = new AtomicInteger();
+    private final AtomicLong extractedBytes = new AtomicLong();
+
+    /**
+     * @param directory The root of the store.
+     * @param maxSize   The size, in bytes, above which the least recently used artifacts are evicted.
+     */
+    DependencyStore(File directory, long maxSize) {
+        checkArgument(maxSize > 0, "maxSize must be positive");
+        this.directory = checkNotNull(directory, "directory");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Makes sure the thrift files of a jar are in the store.
+     *
+     * @param jar         The dependency jar.
+     * @param coordinates The path identifying the artifact within the store, e.g. {@code group/artifact/version}.
+     * @return The extraction, whose directory is {@code null} if the jar contains no thrift files.
+     * @throws IOException If the jar cannot be read or the store cannot be written.
+     */
+    Extraction extract(File jar, String coordinates) throws IOException {
+        final String key = jar.getAbsolutePath() + '|' + jar.length() + '|' + jar.lastModified();
+        Extraction extraction = EXTRACTIONS.get(key);
+        if (extraction != null && extraction.getDirectory() != null && !touch(extraction.getDirectory())) {
+            // evicted by another build
+            extraction = null;
+        }
+        if (extraction == null) {
+            final ImmutableSet<String> entries = scanner.scan(jar).keySet();
+            if (entries.isEmpty()) {
+                extraction = new Extraction(null, entries);
+            } else {
+                final File artifactDirectory =
+                        new File(new File(new File(directory, ARTIFACTS), coordinates), getChecksum(jar, key));
+                if (!touch(artifactDirectory)) {
+                    populate(jar, entries, artifactDirectory);
+                    evict(artifactDirectory);
+                }
+                extraction = new Extraction(artifactDirectory, entries);
+            }
+            EXTRACTIONS.put(key, extraction);
+        }
+        return extraction;
+    }
+
+    /**
+     * @return The number of jars listed by this instance, i.e. the jars not yet extracted in this JVM.
+     */
+    int getScannedJars() {
+        return scanner.getScannedJars();
+    }
+
+    /**
+     * @return The number of files this instance added to the store.
+     */
+    int getExtractedFiles() {
+        return extractedFiles.get();
+    }
+
+    /**
+     * @return The size of the files this instance added to the store.
+     */
+    long getExtractedBytes() {
+        return extractedBytes.get();
+    }
+
+    /**
+     * @return The SHA-1 of a jar, read from the record of a previous build when the jar is unchanged.
+     */
+    private String getChecksum(File jar, String key) throws IOException {
+        final File record = new File(new File(directory, CHECKSUMS), sha1(key));
+        final String recorded = readRecord(record);
+        if (recorded != null && recorded.matches("[0-9a-f]{40}")) {
+            return recorded;
+        }
+        final String checksum = BuildState.sha1(jar);
+        record.getParentFile().mkdirs();
+        final File temporary = new File(record.getParentFile(), record.getName() + '.' + UUID.randomUUID()
+                + STAGING_SUFFIX);
+        Files.write(temporary.toPath(), checksum.getBytes(Charsets.UTF_8));
+        if (!temporary.renameTo(record)) {
+            // recorded concurrently
+            temporary.delete();
+        }
+        return checksum;
+    }
+
+    /**
+     * @return The checksum recorded in {@code record}, or {@code null} if there is none.
+     */
+    private static String readRecord(File record) {
+        try {
+            return new String(Files.readAllBytes(record.toPath()), Charsets.UTF_8);
+        } catch (IOException e) {
+            // missing, or deleted by another build
+            return null;
+        }
+    }
+
+    private static String sha1(String value) {
+        try {
+            return AbstractThriftMojo.toHexString(MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(Charsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Marks a published artifact directory as used.
+     *
+     * @return {@code false} if the directory is not published.
+     */
+    private static boolean touch(File artifactDirectory) {
+        return new File(artifactDirectory, COMPLETE_MARKER).setLastModified(System.currentTimeMillis());
+    }
+
+    private void populate(File jar, Iterable<String> entries, File artifactDirectory) throws IOException {
+        final File staging = new File(artifactDirectory.getParentFile(),
+                artifactDirectory.getName() + '.' + UUID.randomUUID() + STAGING_SUFFIX);
+        final Path root = staging.toPath().toAbsolutePath().normalize();
+        try {
+            final ZipFile zipFile;
+            try {
+                zipFile = new ZipFile(jar);
+            } catch (IOException e) {
+                throw new IllegalArgumentException(format("%s was not a readable artifact", jar));
+            }
+            // the marker lists the jar, then the blobs the artifact refers to
+            final List<String> marker = newArrayList(jar.getPath());
+            try {
+                for (String entry : entries) {
+                    final Path target;
+                    try {
+                        target = root.resolve(entry).normalize();
+                    } catch (InvalidPathException e) {
+                        throw new IllegalArgumentException(format("%s has an invalid entry %s", jar, entry));
+                    }
+                    if (!target.startsWith(root) || target.equals(root)) {
+                        throw new IllegalArgumentException(format("%s has an entry outside of the jar: %s", jar,
+                                entry));
+                    }
+                    final InputStream in = zipFile.getInputStream(zipFile.getEntry(entry));
+                    try {
+                        marker.add(link(in, target.toFile()));
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                zipFile.close();
+            }
+            Files.write(new File(staging, COMPLETE_MARKER).toPath(), marker, Charsets.UTF_8);
+
+            if (!staging.renameTo(artifactDirectory) && !new File(artifactDirectory, COMPLETE_MARKER).isFile()) {
+                throw new IOException("Unable to publish " + artifactDirectory);
+            }
+        } finally {
+            // only left behind when another build published the same artifact first, or on failure
+            if (staging.exists()) {
+                delete(staging);
+            }
+        }
+    }
+
+    /**
+     * Writes {@code in} to the blob named after its SHA-1 and links {@code target} to that blob.
+     *
+     * @return The SHA-1 of the content.
+     */
+    private String link(InputStream in, File target) throws IOException {
+        final File blobs = new File(directory, BLOBS);
+        blobs.mkdirs();
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        final File temporary = File.createTempFile("blob", STAGING_SUFFIX, blobs);
+        try {
+            final OutputStream out = new FileOutputStream(temporary);
+            try {
+                extractedBytes.addAndGet(ByteStreams.copy(new DigestInputStream(in, digest), out));
+                extractedFiles.incrementAndGet();
+            } finally {
+                out.close();
+            }
+            final String hash = AbstractThriftMojo.toHexString(digest.digest());
+            final File blob = new File(new File(blobs, hash.substring(0, 2)), hash);
+            if (!blob.isFile()) {
+                blob.getParentFile().mkdirs();
+                if (!temporary.renameTo(blob) && !blob.isFile()) {
+                    throw new IOException("Unable to store " + blob);
+                }
+            }
+
+            target.getParentFile().mkdirs();
+            try {
+                Files.createLink(target.toPath(), blob.toPath());
+            } catch (IOException e) {
+                copy(temporary, blob, target);
+            } catch (UnsupportedOperationException e) {
+                copy(temporary, blob, target);
+            }
+            // a link shares the permissions of the blob
+            target.setReadOnly();
+            return hash;
+        } finally {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Writes the content of a blob that cannot be linked, e.g. because it was evicted concurrently.
+     */
+    private static void copy(File temporary, File blob, File target) throws IOException {
+        if (!temporary.renameTo(target)) {
+            FileUtils.copyFile(blob, target);
+        }
+    }
+
+    /**
+     * Deletes the least recently used artifact directories until the blobs fit in the maximum size of the store,
+     * together with the blobs that no remaining artifact refers to. The size is measured on the blobs, since the
+     * artifact directories are links to them.
+     *
+     * @param published The artifact directory just published, which is kept.
+     */
+    private void evict(File published) throws IOException {
+        final Map<String, File> blobs = newHashMap();
+        long size = 0;
+        final File[] prefixes = new File(directory, BLOBS).listFiles();
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                final File[] files = prefix.listFiles();
+                if (files != null) {
+                    for (File blob : files) {
+                        blobs.put(blob.getName(), blob);
+                        size += blob.length();
+                    }
+                }
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        final List<File> artifacts = newArrayList();
+        collectArtifacts(new File(directory, ARTIFACTS), artifacts);
+        Collections.sort(artifacts, new Comparator<File>() {
+            public int compare(File first, File second) {
+                final long difference = new File(first, COMPLETE_MARKER).lastModified()
+                        - new File(second, COMPLETE_MARKER).lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        final Map<File, List<String>> references = newHashMap();
+        final Multiset<String> referenceCounts = HashMultiset.create();
+        for (File artifact : artifacts) {
+            final List<String> marker = Files.readAllLines(new File(artifact, COMPLETE_MARKER).toPath(),
+                    Charsets.UTF_8);
+            references.put(artifact, marker.subList(Math.min(1, marker.size()), marker.size()));
+            referenceCounts.addAll(references.get(artifact));
+        }
+
+        // blobs left behind by interrupted builds, once no build can still be publishing them
+        final long graceLimit = System.currentTimeMillis() - BLOB_GRACE_MILLIS;
+        for (File blob : blobs.values()) {
+            if (!referenceCounts.contains(blob.getName()) && blob.lastModified() < graceLimit) {
+                size -= deleteBlob(blob);
+            }
+        }
+        for (int i = 0; i < artifacts.size() && size > maxSize; i++) {
+            final File artifact = artifacts.get(i);
+            if (artifact.equals(published) || !delete(artifact)) {
+                continue;
+            }
+            for (String hash : references.remove(artifact)) {
+                if (referenceCounts.remove(hash, 1) == 1 && blobs.containsKey(hash)) {
+                    size -= deleteBlob(blobs.get(hash));
+                }
+            }
+        }
+
+        // the checksums of jars whose artifact was evicted
+        final Set<String> checksums = newHashSet();
+        for (File artifact : references.keySet()) {
+            checksums.add(artifact.getName());
+        }
+        final File[] records = new File(directory, CHECKSUMS).listFiles();
+        if (records != null) {
+            for (File record : records) {
+                if (record.lastModified() < graceLimit && !checksums.contains(readRecord(record))) {
+                    delete(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The size of the blob, or {@code 0} if it could not be deleted.
+     */
+    private static long deleteBlob(File blob) {
+        final long length = blob.length();
+        return delete(blob) ? length : 0;
+    }
+
+    /**
+     * Finds the published artifact directories, i.e. the directories holding a marker.
+     */
+    private static void collectArtifacts(File directory, List<File> artifacts) {
+        if (new File(directory, COMPLETE_MARKER).isFile()) {
+            artifacts.add(directory);
+            return;
+        }
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory() && !child.getName().endsWith(STAGING_SUFFIX)) {
+                    collectArtifacts(child, artifacts);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a file or directory, including read-only files.
+     *
+     * @return {@code true} if it was deleted.
+     */
+    private static boolean delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (file.delete()) {
+            return true;
+        }
+        // read-only files cannot be deleted on Windows
+        return file.setWritable(true) && file.delete();
+    }
+
+    /**
+     * The location of the thrift files of one jar within the store.
+     */
+    static final class Extraction {
+        private final File directory;
+        private final ImmutableSet<String> entries;
+
+        Extraction(File directory, ImmutableSet<String> entries) {
+            this.directory = directory;
+            this.entries = entries;
+        }
+
+        /**
+         * @return The directory holding the thrift files, or {@code null} if there are none.
+         */
+        File getDirectory() {
+            return directory;
+        }
+
+        /**
+         * @return The names of the thrift files, relative to {@link #getDirectory()}.
+         */
+        ImmutableSet<String> getEntries() {
+            return entries;
+        }
+    }
+}
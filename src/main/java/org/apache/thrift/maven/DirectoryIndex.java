@@ -0,0 +1,240 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static com.google.common.collect.Sets.newTreeSet;
+
+/**
+ * Finds the thrift files below the directories of the classpath, such as the output directories of the other
+ * modules of a reactor, without walking unchanged trees again.
+ * <p/>
+ * The listing of every directory, i.e. its thrift files and subdirectories, is kept together with the
+ * modification time of the directory, which changes whenever an entry is added, removed or renamed in it. A
+ * directory whose modification time is unchanged is not listed again, so an unchanged tree costs one
+ * {@code stat} per directory. Listings are shared by every build of the JVM, e.g. the modules of a reactor, and
+ * stored in an index file between builds. Symbolic links to directories are not followed.
+ */
+final class DirectoryIndex {
+
+    private static final String THRIFT_FILE_SUFFIX = ".thrift";
+
+    private static final String ENTRY_SEPARATOR = "!/";
+    private static final char FIELD_SEPARATOR = '|';
+    private static final Joiner NAME_JOINER = Joiner.on('/');
+    private static final Splitter FIELD_SPLITTER = Splitter.on(FIELD_SEPARATOR);
+    private static final Splitter NAME_SPLITTER = Splitter.on('/').omitEmptyStrings();
+
+    /**
+     * How recently a directory may have been modified for its listing to be reused: entries added within the
+     * resolution of the file system's modification times do not change it.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    private static final ConcurrentMap<String, Listing> LISTINGS = new ConcurrentHashMap<String, Listing>();
+
+    private final File indexFile;
+    private final Map<String, Listing> previous;
+    private final Map<String, Listing> current = newLinkedHashMap();
+    private int listedDirectories;
+
+    private DirectoryIndex(File indexFile, Map<String, Listing> previous) {
+        this.indexFile = indexFile;
+        this.previous = previous;
+    }
+
+    /**
+     * Reads the listings stored by a previous build, ignoring malformed entries.
+     *
+     * @param indexFile The file the listings are stored in by {@link #write()}.
+     */
+    static DirectoryIndex open(File indexFile) throws IOException {
+        final Map<String, Listing> previous = newHashMap();
+        if (indexFile.isFile()) {
+            final Properties properties = new Properties();
+            final InputStream in = new FileInputStream(indexFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+            for (String key : properties.stringPropertyNames()) {
+                final List<String> fields = newArrayList(FIELD_SPLITTER.split(properties.getProperty(key)));
+                if (fields.size() == 3) {
+                    try {
+                        previous.put(key, new Listing(Long.parseLong(fields.get(0)),
+                                ImmutableList.copyOf(NAME_SPLITTER.split(fields.get(1))),
+                                ImmutableList.copyOf(NAME_SPLITTER.split(fields.get(2)))));
+                    } catch (NumberFormatException e) {
+                        // the directory is listed again
+                    }
+                }
+            }
+        }
+        return new DirectoryIndex(indexFile, previous);
+    }
+
+    /**
+     * Finds the thrift files below a directory, listing only the directories that changed since they were
+     * last listed.
+     *
+     * @return The paths of the thrift files relative to the directory, using {@code /} as separator, sorted.
+     */
+    ImmutableSet<String> getThriftFiles(File directory) {
+        final SortedSet<String> thriftFiles = newTreeSet();
+        index(directory.getAbsoluteFile(), "", thriftFiles);
+        return ImmutableSet.copyOf(thriftFiles);
+    }
+
+    /**
+     * @return The number of directories listed, i.e. those whose previous listing could not be reused.
+     */
+    int getListedDirectories() {
+        return listedDirectories;
+    }
+
+    /**
+     * Stores the listings of the directories indexed since the index was opened, to a temporary file that is
+     * renamed so that concurrent builds never read a partial index.
+     */
+    void write() throws IOException {
+        if (current.equals(previous)) {
+            return;
+        }
+        final Properties properties = new Properties();
+        for (Map.Entry<String, Listing> listing : current.entrySet()) {
+            properties.setProperty(listing.getKey(), listing.getValue().lastModified + FIELD_SEPARATOR
+                    + NAME_JOINER.join(listing.getValue().subdirectories) + FIELD_SEPARATOR
+                    + NAME_JOINER.join(listing.getValue().thriftFiles));
+        }
+        Files.createDirectories(indexFile.getParentFile().toPath());
+        final File temporaryFile = new File(indexFile.getParentFile(), indexFile.getName() + '.' + UUID.randomUUID());
+        final OutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            properties.store(out, "thrift files of the classpath directories");
+        } finally {
+            out.close();
+        }
+        if (!temporaryFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!temporaryFile.renameTo(indexFile)) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    private void index(File root, String relativePath, SortedSet<String> thriftFiles) {
+        final File directory = relativePath.length() == 0 ? root : new File(root, relativePath);
+        final String key = root.getPath() + ENTRY_SEPARATOR + relativePath;
+        final long lastModified = directory.lastModified();
+        Listing listing = LISTINGS.get(key);
+        if (listing == null || listing.lastModified != lastModified) {
+            listing = previous.get(key);
+        }
+        if (listing == null || listing.lastModified != lastModified) {
+            listing = list(directory, lastModified);
+            listedDirectories++;
+        }
+        LISTINGS.put(key, listing);
+        current.put(key, listing);
+
+        final String prefix = relativePath.length() == 0 ? "" : relativePath + '/';
+        for (String thriftFile : listing.thriftFiles) {
+            thriftFiles.add(prefix + thriftFile);
+        }
+        for (String subdirectory : listing.subdirectories) {
+            index(root, prefix + subdirectory, thriftFiles);
+        }
+    }
+
+    private static Listing list(File directory, long lastModified) {
+        final List<String> subdirectories = newArrayList();
+        final List<String> thriftFiles = newArrayList();
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    // links are not followed, as they may form cycles
+                    if (!Files.isSymbolicLink(child.toPath())) {
+                        subdirectories.add(child.getName());
+                    }
+                } else if (child.getName().endsWith(THRIFT_FILE_SUFFIX)) {
+                    thriftFiles.add(child.getName());
+                }
+            }
+        }
+        // a directory modified too recently is listed again by the next build
+        final boolean racy = System.currentTimeMillis() - lastModified < RACY_MILLIS;
+        return new Listing(racy ? -1 : lastModified, ImmutableList.copyOf(subdirectories),
+                ImmutableList.copyOf(thriftFiles));
+    }
+
+    /**
+     * The subdirectories and thrift files of a directory, as of its modification time.
+     */
+    private static final class Listing {
+        private final long lastModified;
+        private final ImmutableList<String> subdirectories;
+        private final ImmutableList<String> thriftFiles;
+
+        Listing(long lastModified, ImmutableList<String> subdirectories, ImmutableList<String> thriftFiles) {
+            this.lastModified = lastModified;
+            this.subdirectories = subdirectories;
+            this.thriftFiles = thriftFiles;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Listing)) {
+                return false;
+            }
+            final Listing other = (Listing) object;
+            return lastModified == other.lastModified && subdirectories.equals(other.subdirectories)
+                    && thriftFiles.equals(other.thriftFiles);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) lastModified * 31 + subdirectories.hashCode() * 17 + thriftFiles.hashCode();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Removes the content of generated sources that differs between runs of {@code thrift} on identical inputs, so
+ * that the output is byte-identical: the date of the {@code @Generated} annotations is replaced by a fixed date,
+ * and line separators are normalized to {@code \n}.
+ * <p/>
+ * Files are streamed line by line into a temporary file, which replaces the file only if its content changed.
+ * The content is read as ISO-8859-1, so bytes outside of the rewritten text are preserved whatever the encoding.
+ */
+final class GeneratedSourceNormalizer {
+
+    private static final String ENCODING = "ISO-8859-1";
+
+    /**
+     * The date used when no output timestamp is configured.
+     */
+    static final String DEFAULT_DATE = "1970-01-01";
+
+    private static final Pattern GENERATED_DATE =
+            Pattern.compile("(@(?:javax\\.annotation\\.(?:processing\\.)?)?Generated\\(.*\\bdate = \")[^\"]*(\")");
+
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+
+    private static final Pattern EPOCH_SECONDS = Pattern.compile("\\d+");
+
+    private final String date;
+
+    /**
+     * @param date The date written into the annotations, as {@code yyyy-MM-dd}.
+     */
+    GeneratedSourceNormalizer(String date) {
+        checkArgument(DATE.matcher(checkNotNull(date, "date")).matches(), "%s is not a yyyy-MM-dd date", date);
+        this.date = date;
+    }
+
+    /**
+     * Creates a normalizer from a timestamp in the format of the {@code project.build.outputTimestamp} property:
+     * an ISO-8601 timestamp or a number of seconds since the epoch. Dates are accepted as well.
+     *
+     * @param outputTimestamp The timestamp, or {@code null} or a single character if none is set.
+     * @throws IllegalArgumentException If the timestamp cannot be parsed.
+     */
+    static GeneratedSourceNormalizer forOutputTimestamp(String outputTimestamp) {
+        if (outputTimestamp == null || outputTimestamp.trim().length() < 2) {
+            return new GeneratedSourceNormalizer(DEFAULT_DATE);
+        }
+        final String timestamp = outputTimestamp.trim();
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.ROOT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        if (EPOCH_SECONDS.matcher(timestamp).matches()) {
+            return new GeneratedSourceNormalizer(dateFormat.format(new Date(Long.parseLong(timestamp) * 1000)));
+        }
+        if (DATE.matcher(timestamp).matches()) {
+            return new GeneratedSourceNormalizer(timestamp);
+        }
+        try {
+            final SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ROOT);
+            return new GeneratedSourceNormalizer(dateFormat.format(isoFormat.parse(timestamp)));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(timestamp + " is not a valid output timestamp", e);
+        }
+    }
+
+    /**
+     * @return The date written into the annotations.
+     */
+    String getDate() {
+        return date;
+    }
+
+    /**
+     * Normalizes every file below a directory.
+     */
+    void normalizeTree(File directory) throws IOException {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                normalizeTree(child);
+            } else {
+                normalize(child);
+            }
+        }
+    }
+
+    /**
+     * Normalizes a file in place.
+     *
+     * @return {@code true} if the file was rewritten.
+     */
+    boolean normalize(File file) throws IOException {
+        final File temporaryFile = new File(file.getParentFile(), file.getName() + '.' + UUID.randomUUID());
+        boolean changed = false;
+        try {
+            final Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+            try {
+                final Writer out = new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(temporaryFile), ENCODING));
+                try {
+                    final StringBuilder line = new StringBuilder();
+                    int c;
+                    while ((c = in.read()) != -1) {
+                        if (c == '\r') {
+                            // \r\n and lone \r both end a line
+                            changed = true;
+                            in.mark(1);
+                            if (in.read() != '\n') {
+                                in.reset();
+                            }
+                            c = '\n';
+                        }
+                        if (c == '\n') {
+                            changed |= writeLine(out, line);
+                            out.write('\n');
+                            line.setLength(0);
+                        } else {
+                            line.append((char) c);
+                        }
+                    }
+                    changed |= writeLine(out, line);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            if (changed && !(temporaryFile.renameTo(file) || (file.delete() && temporaryFile.renameTo(file)))) {
+                throw new IOException("Unable to replace " + file);
+            }
+            return changed;
+        } finally {
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * @return {@code true} if the line was changed.
+     */
+    private boolean writeLine(Writer out, StringBuilder line) throws IOException {
+        final String original = line.toString();
+        final String normalized = normalizeLine(original);
+        out.write(normalized);
+        return !normalized.equals(original);
+    }
+
+    /**
+     * @return The line with the date of a {@code @Generated} annotation replaced.
+     */
+    String normalizeLine(String line) {
+        if (line.indexOf("Generated(") < 0) {
+            return line;
+        }
+        final Matcher matcher = GENERATED_DATE.matcher(line);
+        return matcher.find() ? matcher.replaceFirst("$1" + date + "$2") : line;
+    }
+
+    @Override
+    public String toString() {
+        return "normalized to " + date;
+    }
+}
@@ -0,0 +1,93 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@code thrift} generator together with the directory it generates into, configured as an element of
+ * the {@code generators} parameter:
+ * <pre>
+ * &lt;generators&gt;
+ *   &lt;generator&gt;
+ *     &lt;generator&gt;java:hashcode&lt;/generator&gt;
+ *     &lt;outputDirectory&gt;${project.build.directory}/generated-sources/thrift&lt;/outputDirectory&gt;
+ *   &lt;/generator&gt;
+ *   &lt;generator&gt;
+ *     &lt;generator&gt;js:node&lt;/generator&gt;
+ *     &lt;outputDirectory&gt;${project.build.directory}/generated-sources/thrift-js&lt;/outputDirectory&gt;
+ *   &lt;/generator&gt;
+ * &lt;/generators&gt;
+ * </pre>
+ */
+public final class GeneratorTarget {
+
+    /**
+     * The value of the {@code --gen} option, e.g. {@code java:hashcode} or {@code py:new_style}.
+     */
+    private String generator;
+
+    /**
+     * The directory the generated files are written to. Each generator needs its own directory.
+     */
+    private File outputDirectory;
+
+    /**
+     * Whether the output directory is added to the compile source roots of the project. By default only
+     * the output of the {@code java} generator is.
+     */
+    private Boolean attach;
+
+    public GeneratorTarget() {
+    }
+
+    GeneratorTarget(String generator, File outputDirectory, boolean attach) {
+        this.generator = checkNotNull(generator, "generator");
+        this.outputDirectory = checkNotNull(outputDirectory, "outputDirectory");
+        this.attach = attach;
+    }
+
+    String getGenerator() {
+        return generator;
+    }
+
+    File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * @return The language of the generator, i.e. the {@code --gen} option without the generator options.
+     */
+    String getLanguage() {
+        final int colon = generator.indexOf(':');
+        return colon < 0 ? generator : generator.substring(0, colon);
+    }
+
+    boolean isAttached() {
+        return attach != null ? attach : "java".equals(getLanguage());
+    }
+
+    @Override
+    public String toString() {
+        return generator + " -> " + outputDirectory;
+    }
+}
@@ -0,0 +1,294 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.lang.String.format;
+
+/**
+ * Lists the entries of jars that have a given suffix by reading only the ZIP central directory.
+ * <p/>
+ * The end of central directory record is located in the tail of the file and the central directory
+ * is read with a single positional {@link FileChannel} read; no local headers are touched and no
+ * {@link java.util.jar.JarFile} is created. The channel is always closed before returning. Archives
+ * that use ZIP64 records fall back to {@link ZipFile}.
+ */
+final class JarScanner {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int END_LENGTH = 22;
+    private static final int CENTRAL_LENGTH = 46;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final long ZIP64_MARKER = 0xFFFFFFFFL;
+
+    private final byte[] suffix;
+    private final AtomicInteger scannedJars = new AtomicInteger();
+
+    /**
+     * @param suffix The suffix of the entry names to report, e.g. {@code .thrift}.
+     */
+    JarScanner(String suffix) {
+        this.suffix = checkNotNull(suffix, "suffix").getBytes(Charsets.UTF_8);
+    }
+
+    /**
+     * Scans several jars concurrently.
+     *
+     * @param jars    The jars to scan.
+     * @param threads The maximum number of jars scanned at the same time.
+     * @return The matching entries of each jar, in the iteration order of {@code jars}.
+     * @throws IOException              If a jar cannot be read.
+     * @throws IllegalArgumentException If a file is not a readable archive.
+     */
+    ImmutableMap<File, ImmutableMap<String, Entry>> scan(Iterable<File> jars, int threads) throws IOException {
+        final List<File> jarList = ImmutableList.copyOf(jars);
+        final Map<File, ImmutableMap<String, Entry>> result = newLinkedHashMap();
+        if (threads <= 1 || jarList.size() <= 1) {
+            for (File jar : jarList) {
+                result.put(jar, scan(jar));
+            }
+            return ImmutableMap.copyOf(result);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jarList.size()),
+                new ThreadFactoryBuilder().setNameFormat("thrift-jar-scanner-%d").setDaemon(true).build());
+        try {
+            final List<Future<ImmutableMap<String, Entry>>> futures = newArrayList();
+            for (final File jar : jarList) {
+                futures.add(executor.submit(new Callable<ImmutableMap<String, Entry>>() {
+                    public ImmutableMap<String, Entry> call() throws IOException {
+                        return scan(jar);
+                    }
+                }));
+            }
+            for (int i = 0; i < jarList.size(); i++) {
+                result.put(jarList.get(i), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning dependencies", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to scan dependencies", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return ImmutableMap.copyOf(result);
+    }
+
+    /**
+     * @return The number of jars scanned so far.
+     */
+    int getScannedJars() {
+        return scannedJars.get();
+    }
+
+    /**
+     * Scans a single jar.
+     *
+     * @param jar The jar to scan.
+     * @return The matching entries, keyed by name.
+     * @throws IOException              If the jar cannot be read.
+     * @throws IllegalArgumentException If the file is not a readable archive.
+     */
+    ImmutableMap<String, Entry> scan(File jar) throws IOException {
+        scannedJars.incrementAndGet();
+        final RandomAccessFile file = new RandomAccessFile(jar, "r");
+        try {
+            final ImmutableMap<String, Entry> entries = readCentralDirectory(file.getChannel());
+            if (entries != null) {
+                return entries;
+            }
+        } finally {
+            file.close();
+        }
+        return scanWithZipFile(jar);
+    }
+
+    /**
+     * @return The matching entries, or {@code null} if the archive needs the ZIP64 aware fallback.
+     */
+    private ImmutableMap<String, Entry> readCentralDirectory(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int tailLength = (int) Math.min(size, END_LENGTH + MAX_COMMENT_LENGTH);
+        final ByteBuffer tail = read(channel, size - tailLength, tailLength);
+
+        int end = -1;
+        for (int i = tailLength - END_LENGTH; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE
+                    && i + END_LENGTH + (tail.getShort(i + 20) & 0xFFFF) <= tailLength) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            return null;
+        }
+
+        final long centralSize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        final long centralOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (centralSize == ZIP64_MARKER || centralOffset == ZIP64_MARKER || (tail.getShort(end + 10) & 0xFFFF) == 0xFFFF) {
+            return null;
+        }
+        // measured from the end record so that archives with a prefix (e.g. executable jars) work
+        final long centralStart = size - tailLength + end - centralSize;
+        if (centralStart < 0) {
+            return null;
+        }
+
+        final ByteBuffer central = read(channel, centralStart, (int) centralSize);
+        final Map<String, Entry> entries = newLinkedHashMap();
+        int position = 0;
+        while (position + CENTRAL_LENGTH <= centralSize) {
+            if (central.getInt(position) != CENTRAL_SIGNATURE) {
+                return null;
+            }
+            final int nameLength = central.getShort(position + 28) & 0xFFFF;
+            final int extraLength = central.getShort(position + 30) & 0xFFFF;
+            final int commentLength = central.getShort(position + 32) & 0xFFFF;
+            final int nameStart = position + CENTRAL_LENGTH;
+            if (endsWithSuffix(central, nameStart, nameLength)) {
+                final byte[] name = new byte[nameLength];
+                for (int i = 0; i < nameLength; i++) {
+                    name[i] = central.get(nameStart + i);
+                }
+                final long uncompressedSize = central.getInt(position + 24) & 0xFFFFFFFFL;
+                final Entry entry = new Entry(new String(name, Charsets.UTF_8),
+                        central.getInt(position + 16) & 0xFFFFFFFFL,
+                        uncompressedSize == ZIP64_MARKER ? -1 : uncompressedSize);
+                entries.put(entry.getName(), entry);
+            }
+            position = nameStart + nameLength + extraLength + commentLength;
+        }
+        return ImmutableMap.copyOf(entries);
+    }
+
+    private boolean endsWithSuffix(ByteBuffer buffer, int nameStart, int nameLength) {
+        if (nameLength < suffix.length) {
+            return false;
+        }
+        final int offset = nameStart + nameLength - suffix.length;
+        for (int i = 0; i < suffix.length; i++) {
+            if (buffer.get(offset + i) != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new IOException("Unexpected end of archive");
+            }
+        }
+        return buffer;
+    }
+
+    private ImmutableMap<String, Entry> scanWithZipFile(File jar) throws IOException {
+        final ZipFile zipFile;
+        try {
+            zipFile = new ZipFile(jar);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(format("%s was not a readable artifact", jar));
+        }
+        try {
+            final String suffixString = new String(suffix, Charsets.UTF_8);
+            final Map<String, Entry> entries = newLinkedHashMap();
+            final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry zipEntry = zipEntries.nextElement();
+                if (zipEntry.getName().endsWith(suffixString)) {
+                    entries.put(zipEntry.getName(), new Entry(zipEntry.getName(), zipEntry.getCrc(), zipEntry.getSize()));
+                }
+            }
+            return ImmutableMap.copyOf(entries);
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * An entry as described by the central directory.
+     */
+    static final class Entry {
+        private final String name;
+        private final long crc;
+        private final long size;
+
+        Entry(String name, long crc, long size) {
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        /**
+         * @return The full name of the entry.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return The CRC-32 of the uncompressed data.
+         */
+        long getCrc() {
+            return crc;
+        }
+
+        /**
+         * @return The uncompressed size, or -1 if unknown.
+         */
+        long getSize() {
+            return size;
+        }
+    }
+}
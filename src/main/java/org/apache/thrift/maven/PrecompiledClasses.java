@@ -0,0 +1,317 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static org.codehaus.plexus.util.FileUtils.deleteDirectory;
+import static org.codehaus.plexus.util.FileUtils.getFileNames;
+
+/**
+ * A local cache of the classes compiled from generated source trees, keyed by a fingerprint of the sources,
+ * the classpath and the compiler options (see {@link #getFingerprint}).
+ * <p/>
+ * The sources are compiled in-process through the {@code javax.tools} API, and the classes of each tree are
+ * stored as a jar named after the fingerprint. Jars are written to a temporary file and renamed into place, so
+ * concurrent builds never see a partial entry. Using an entry touches its modification time, and once the jars
+ * exceed the configured size the least recently used ones are evicted.
+ */
+final class PrecompiledClasses {
+
+    private static final String ARCHIVE_SUFFIX = ".jar";
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory The directory holding the jars, created when the first entry is stored.
+     * @param maxSize   The size, in bytes, above which the least recently used jars are evicted.
+     */
+    PrecompiledClasses(File directory, long maxSize) {
+        this.directory = checkNotNull(directory, "directory");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return {@code true} if a java compiler is available in-process, i.e. if Maven runs on a JDK.
+     */
+    static boolean isAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    /**
+     * Computes a key identifying the classes compiled from a generated source tree. It covers the content of
+     * every source, the compiler options, the running JDK and the plugin version, and each classpath element: jars
+     * by their location, size and modification time, and directories by the content of their files, since a
+     * rebuilt directory holds new files whether or not they changed.
+     *
+     * @param sourceDirectory The directory the source paths are made relative to.
+     * @param sources         The generated sources.
+     * @param classpath       The classpath the sources are compiled against.
+     * @param options         The options passed to javac.
+     * @param pluginVersion   The version of this plugin.
+     * @return The hex encoded SHA-1 fingerprint.
+     */
+    static String getFingerprint(File sourceDirectory, List<File> sources, List<File> classpath,
+                                 List<String> options, String pluginVersion) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        update(digest, String.valueOf(pluginVersion));
+        update(digest, System.getProperty("java.vendor") + ' ' + System.getProperty("java.version"));
+        update(digest, Joiner.on(' ').join(options));
+        for (File element : classpath) {
+            update(digest, element.getAbsolutePath());
+            if (element.isDirectory()) {
+                @SuppressWarnings("unchecked")
+                final List<String> files = getFileNames(element, null, null, false);
+                Collections.sort(files);
+                for (String file : files) {
+                    update(digest, file.replace(File.separatorChar, '/'));
+                    update(digest, BuildState.sha1(new File(element, file)));
+                }
+            } else {
+                update(digest, element.length() + " " + element.lastModified());
+            }
+        }
+        for (File source : sources) {
+            update(digest, BuildState.getRelativePath(source, sourceDirectory));
+            update(digest, BuildState.sha1(source));
+        }
+        return AbstractThriftMojo.toHexString(digest.digest());
+    }
+
+    /**
+     * @return The jar of the classes stored under {@code key}, or {@code null} if there is none.
+     */
+    File get(String key) {
+        final File archive = getArchive(key);
+        if (!archive.isFile()) {
+            return null;
+        }
+        archive.setLastModified(System.currentTimeMillis());
+        return archive;
+    }
+
+    /**
+     * Compiles the sources and stores the classes under {@code key}, then evicts the least recently used
+     * entries if the cache has grown too large.
+     *
+     * @param diagnostics Receives the errors and warnings reported by javac.
+     * @return The jar of the classes, or {@code null} if javac failed.
+     * @throws IllegalStateException If no java compiler is available, see {@link #isAvailable()}.
+     */
+    File compile(String key, List<File> sources, List<File> classpath, List<String> options,
+                 DiagnosticListener<? super JavaFileObject> diagnostics) throws IOException {
+        final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            throw new IllegalStateException("No java compiler is available, Maven must run on a JDK");
+        }
+        directory.mkdirs();
+        final String temporaryName = key + '.' + UUID.randomUUID();
+        final File classesDirectory = new File(directory, temporaryName);
+        final File temporary = new File(directory, temporaryName + ".tmp");
+        try {
+            classesDirectory.mkdirs();
+            final List<String> arguments = newArrayList(options);
+            arguments.addAll(Arrays.asList("-d", classesDirectory.getPath(),
+                    "-classpath", Joiner.on(File.pathSeparatorChar).join(classpath)));
+            final StandardJavaFileManager fileManager =
+                    javac.getStandardFileManager(diagnostics, Locale.ROOT, Charsets.UTF_8);
+            try {
+                if (!javac.getTask(null, fileManager, diagnostics, arguments, null,
+                        fileManager.getJavaFileObjectsFromFiles(sources)).call()) {
+                    return null;
+                }
+            } finally {
+                fileManager.close();
+            }
+            final JarOutputStream out = new JarOutputStream(new FileOutputStream(temporary));
+            try {
+                @SuppressWarnings("unchecked")
+                final List<String> files = getFileNames(classesDirectory, null, null, false);
+                for (String file : files) {
+                    out.putNextEntry(new JarEntry(file.replace(File.separatorChar, '/')));
+                    Files.copy(new File(classesDirectory, file), out);
+                    out.closeEntry();
+                }
+            } finally {
+                out.close();
+            }
+            final File archive = getArchive(key);
+            if (!temporary.renameTo(archive) && !archive.isFile()) {
+                throw new IOException("Unable to store " + archive);
+            }
+            evict(archive);
+            return archive;
+        } finally {
+            temporary.delete();
+            deleteDirectory(classesDirectory);
+        }
+    }
+
+    /**
+     * @return The classes held by a jar, relative to the classes directory they are extracted into.
+     */
+    static ImmutableSet<String> list(File archive) throws IOException {
+        final ImmutableSet.Builder<String> classes = ImmutableSet.builder();
+        final JarFile jar = new JarFile(archive);
+        try {
+            final Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory()) {
+                    classes.add(entry.getName());
+                }
+            }
+        } finally {
+            jar.close();
+        }
+        return classes.build();
+    }
+
+    /**
+     * Extracts the classes of a jar into a classes directory, rewriting only the classes that changed or are
+     * missing, and deletes the classes extracted previously that the jar no longer holds, together with the
+     * directories they leave empty.
+     *
+     * @param archive  The jar, or {@code null} to only delete the classes extracted previously.
+     * @param previous The classes extracted previously, relative to the classes directory.
+     * @return The classes extracted, relative to the classes directory.
+     */
+    static ImmutableSet<String> extract(File archive, File classesDirectory, Set<String> previous)
+            throws IOException {
+        final ImmutableSet.Builder<String> extracted = ImmutableSet.builder();
+        if (archive != null) {
+            final JarFile jar = new JarFile(archive);
+            try {
+                final Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    final JarEntry entry = entries.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    final InputStream in = jar.getInputStream(entry);
+                    try {
+                        writeIfChanged(ByteStreams.toByteArray(in), new File(classesDirectory, entry.getName()));
+                    } finally {
+                        in.close();
+                    }
+                    extracted.add(entry.getName());
+                }
+            } finally {
+                jar.close();
+            }
+        }
+        final ImmutableSet<String> classes = extracted.build();
+        for (String stale : previous) {
+            if (!classes.contains(stale) && new File(classesDirectory, stale).delete()) {
+                File parent = new File(classesDirectory, stale).getParentFile();
+                while (!parent.equals(classesDirectory) && parent.delete()) {
+                    parent = parent.getParentFile();
+                }
+            }
+        }
+        return classes;
+    }
+
+    private static void writeIfChanged(byte[] content, File target) throws IOException {
+        if (target.isFile() && target.length() == content.length && Arrays.equals(Files.toByteArray(target), content)) {
+            return;
+        }
+        target.getParentFile().mkdirs();
+        Files.write(content, target);
+    }
+
+    /**
+     * Deletes the least recently used jars until the cache fits in its maximum size.
+     *
+     * @param stored The jar just stored, which is about to be extracted and is kept even if it alone exceeds the
+     *               maximum size.
+     */
+    private void evict(File stored) {
+        final File[] archives = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(ARCHIVE_SUFFIX);
+            }
+        });
+        if (archives == null) {
+            return;
+        }
+        long size = 0;
+        for (File archive : archives) {
+            size += archive.length();
+        }
+        Arrays.sort(archives, new Comparator<File>() {
+            public int compare(File first, File second) {
+                final long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < archives.length && size > maxSize; i++) {
+            final long length = archives[i].length();
+            if (!archives[i].equals(stored) && archives[i].delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    private File getArchive(String key) {
+        return new File(directory, key + ARCHIVE_SUFFIX);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(Charsets.UTF_8));
+        digest.update((byte) 0);
+    }
+}
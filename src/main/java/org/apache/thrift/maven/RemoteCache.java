@@ -0,0 +1,269 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A build cache shared by several machines, e.g. the agents of a CI fleet, holding the archives of a
+ * {@link BuildCache}.
+ * <p/>
+ * Every archive is stored together with its SHA-256 checksum, which is written after the archive. A fetched
+ * archive is only used if it matches its checksum, so partially written, truncated or corrupted entries are
+ * treated like missing ones.
+ */
+abstract class RemoteCache {
+
+    private static final String CHECKSUM_SUFFIX = ".sha256";
+
+    /**
+     * Creates the backend for a location.
+     *
+     * @param location      An {@code http://} or {@code https://} URL, or a directory, e.g. an NFS mount.
+     * @param timeoutMillis The connect and read timeout of HTTP requests.
+     */
+    static RemoteCache create(String location, int timeoutMillis) {
+        checkNotNull(location, "location");
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            return new Http(location, timeoutMillis);
+        }
+        return new Directory(new File(location.startsWith("file:") ? location.substring("file:".length()) : location));
+    }
+
+    /**
+     * Downloads an archive and verifies its checksum.
+     *
+     * @param name   The name of the archive.
+     * @param target The file the archive is written to.
+     * @return {@code true} if the archive was found and is intact, otherwise {@code target} is deleted.
+     * @throws IOException If the backend cannot be reached.
+     */
+    final boolean fetch(String name, File target) throws IOException {
+        final byte[] checksum = read(name + CHECKSUM_SUFFIX);
+        if (checksum == null) {
+            return false;
+        }
+        final InputStream in = open(name);
+        if (in == null) {
+            return false;
+        }
+        final MessageDigest digest = newSha256Digest();
+        try {
+            final OutputStream out = new FileOutputStream(target);
+            try {
+                ByteStreams.copy(new DigestInputStream(in, digest), out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!AbstractThriftMojo.toHexString(digest.digest()).equals(new String(checksum, Charsets.US_ASCII).trim())) {
+            target.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Uploads an archive followed by its checksum.
+     *
+     * @param name    The name of the archive.
+     * @param archive The archive.
+     * @throws IOException If the backend cannot be reached or refuses the archive.
+     */
+    final void store(String name, File archive) throws IOException {
+        final MessageDigest digest = newSha256Digest();
+        final InputStream in = new DigestInputStream(new FileInputStream(archive), digest);
+        try {
+            write(name, in, archive.length());
+        } finally {
+            in.close();
+        }
+        final byte[] checksum = AbstractThriftMojo.toHexString(digest.digest()).getBytes(Charsets.US_ASCII);
+        write(name + CHECKSUM_SUFFIX, new ByteArrayInputStream(checksum), checksum.length);
+    }
+
+    /**
+     * @return The content of an entry, or {@code null} if it does not exist.
+     */
+    private byte[] read(String name) throws IOException {
+        final InputStream in = open(name);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The content of an entry, or {@code null} if it does not exist.
+     */
+    protected abstract InputStream open(String name) throws IOException;
+
+    /**
+     * Creates or replaces an entry.
+     */
+    protected abstract void write(String name, InputStream content, long length) throws IOException;
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Stores the entries as files of a directory. Entries are written to a temporary file and renamed into place.
+     */
+    static final class Directory extends RemoteCache {
+        private final File directory;
+
+        Directory(File directory) {
+            this.directory = checkNotNull(directory, "directory");
+        }
+
+        @Override
+        protected InputStream open(String name) throws IOException {
+            if (!directory.isDirectory()) {
+                throw new FileNotFoundException(directory + " is not a directory");
+            }
+            try {
+                return new FileInputStream(new File(directory, name));
+            } catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void write(String name, InputStream content, long length) throws IOException {
+            final File file = new File(directory, name);
+            final File temporaryFile = new File(directory, name + '.' + UUID.randomUUID() + ".tmp");
+            try {
+                final OutputStream out = new FileOutputStream(temporaryFile);
+                try {
+                    ByteStreams.copy(content, out);
+                } finally {
+                    out.close();
+                }
+                if (!temporaryFile.renameTo(file)) {
+                    Files.move(temporaryFile, file);
+                }
+            } finally {
+                temporaryFile.delete();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return directory.toString();
+        }
+    }
+
+    /**
+     * Stores the entries on an HTTP server: {@code GET} fetches an entry and {@code PUT} stores it, below the
+     * base URL. A {@code 404} response is a miss.
+     */
+    static final class Http extends RemoteCache {
+        private final String baseUrl;
+        private final int timeoutMillis;
+
+        Http(String baseUrl, int timeoutMillis) {
+            checkArgument(timeoutMillis > 0, "timeoutMillis must be positive");
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + '/';
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        protected InputStream open(String name) throws IOException {
+            final HttpURLConnection connection = connect(name);
+            final int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                connection.disconnect();
+                return null;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                connection.disconnect();
+                throw new IOException("GET " + connection.getURL() + " returned " + status);
+            }
+            return connection.getInputStream();
+        }
+
+        @Override
+        protected void write(String name, InputStream content, long length) throws IOException {
+            final HttpURLConnection connection = connect(name);
+            try {
+                connection.setRequestMethod("PUT");
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(length);
+                connection.setRequestProperty("Content-Type", "application/octet-stream");
+                final OutputStream out = connection.getOutputStream();
+                try {
+                    ByteStreams.copy(content, out);
+                } finally {
+                    out.close();
+                }
+                final int status = connection.getResponseCode();
+                if (status / 100 != 2) {
+                    throw new IOException("PUT " + connection.getURL() + " returned " + status);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private HttpURLConnection connect(String name) throws IOException {
+            final HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + name).openConnection();
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setUseCaches(false);
+            return connection;
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import java.io.File;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A directory of thrift files to compile, configured as an element of the {@code thriftSourceRoots} (or
+ * {@code thriftTestSourceRoots}) parameter:
+ * <pre>
+ * &lt;thriftSourceRoots&gt;
+ *   &lt;thriftSourceRoot&gt;
+ *     &lt;directory&gt;src/main/thrift&lt;/directory&gt;
+ *   &lt;/thriftSourceRoot&gt;
+ *   &lt;thriftSourceRoot&gt;
+ *     &lt;directory&gt;../idl&lt;/directory&gt;
+ *     &lt;includes&gt;
+ *       &lt;include&gt;api/**&#47;*.thrift&lt;/include&gt;
+ *     &lt;/includes&gt;
+ *   &lt;/thriftSourceRoot&gt;
+ * &lt;/thriftSourceRoots&gt;
+ * </pre>
+ */
+public final class SourceRoot {
+
+    /**
+     * The directory containing the thrift files. It is added to the thrift path.
+     */
+    private File directory;
+
+    /**
+     * The files to compile, relative to the directory. By default the {@code includes} of the execution apply.
+     */
+    private Set<String> includes;
+
+    /**
+     * The files not to compile, relative to the directory. By default the {@code excludes} of the execution
+     * apply.
+     */
+    private Set<String> excludes;
+
+    public SourceRoot() {
+    }
+
+    SourceRoot(File directory) {
+        this.directory = checkNotNull(directory, "directory");
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The include patterns, or {@code null} if the patterns of the execution apply.
+     */
+    Set<String> getIncludes() {
+        return includes;
+    }
+
+    /**
+     * @return The exclude patterns, or {@code null} if the patterns of the execution apply.
+     */
+    Set<String> getExcludes() {
+        return excludes;
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(directory);
+    }
+}
@@ -0,0 +1,277 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.MatchPatterns;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newTreeMap;
+
+/**
+ * Finds the files below a directory that match a set of include and exclude patterns, with the semantics of
+ * {@link FileUtils#getFiles(File, String, String)}: comma separated Ant style patterns relative to the
+ * directory, no default excludes, and every file included unless an include pattern is given.
+ * <p/>
+ * The patterns are parsed once, when the scanner is created. Directories that cannot hold an included file,
+ * or that are excluded together with everything below them, are not listed. The modification time of each
+ * file is read together with its type, so the scan also reports the most recent modification time of the
+ * matched files. Subdirectories may be listed concurrently.
+ */
+final class SourceScanner {
+
+    private static final Splitter PATTERN_SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+    private final MatchPatterns includes;
+    private final MatchPatterns excludes;
+    private final MatchPatterns directoryExcludes;
+
+    /**
+     * @param includes The include patterns. When empty, every file is included.
+     * @param excludes The exclude patterns.
+     */
+    SourceScanner(Iterable<String> includes, Iterable<String> excludes) {
+        final List<String> includePatterns = normalize(checkNotNull(includes, "includes"));
+        if (includePatterns.isEmpty()) {
+            includePatterns.add("**");
+        }
+        final List<String> excludePatterns = normalize(checkNotNull(excludes, "excludes"));
+
+        // a directory matched by an exclude ending in ** is excluded together with its content
+        final List<String> directoryExcludePatterns = newArrayList();
+        for (String excludePattern : excludePatterns) {
+            if (excludePattern.endsWith(File.separator + "**")) {
+                directoryExcludePatterns.add(excludePattern);
+            }
+        }
+        this.includes = MatchPatterns.from(includePatterns);
+        this.excludes = MatchPatterns.from(excludePatterns);
+        this.directoryExcludes = MatchPatterns.from(directoryExcludePatterns);
+    }
+
+    /**
+     * Splits the patterns at commas, uses the platform's separator and, like Ant, appends
+     * {@code **} to patterns that end with a separator.
+     */
+    private static List<String> normalize(Iterable<String> patterns) {
+        final List<String> normalized = newArrayList();
+        for (String pattern : PATTERN_SPLITTER.split(Joiner.on(',').join(patterns))) {
+            String result = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+            if (result.endsWith(File.separator)) {
+                result += "**";
+            }
+            normalized.add(result);
+        }
+        return normalized;
+    }
+
+    /**
+     * Scans a directory in the calling thread.
+     *
+     * @return The matching files, ordered by their path relative to {@code directory}.
+     */
+    Result scan(File directory) throws IOException {
+        return scan(directory, 1);
+    }
+
+    /**
+     * Scans a directory.
+     *
+     * @param threads The maximum number of directories listed concurrently.
+     * @return The matching files, ordered by their path relative to {@code directory}.
+     * @throws IOException If a directory cannot be listed.
+     */
+    Result scan(File directory, int threads) throws IOException {
+        checkArgument(threads > 0, "threads must be positive");
+        final Collection<Match> matches = new ConcurrentLinkedQueue<Match>();
+        if (!directory.isDirectory()) {
+            return new Result(matches);
+        }
+        final DirectoryTask root = new DirectoryTask(directory.toPath(), "", matches);
+        if (threads == 1) {
+            final List<DirectoryTask> pending = newArrayList(Collections.singleton(root));
+            while (!pending.isEmpty()) {
+                pending.addAll(pending.remove(pending.size() - 1).list());
+            }
+        } else {
+            final ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                pool.invoke(root);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return new Result(matches);
+    }
+
+    /**
+     * The files found by a scan.
+     */
+    static final class Result {
+        private final ImmutableSet<File> files;
+        private final long lastModified;
+
+        private Result(Collection<Match> matches) {
+            final SortedMap<String, File> sorted = newTreeMap();
+            long latest = 0;
+            for (Match match : matches) {
+                sorted.put(match.relativePath, match.file);
+                latest = Math.max(latest, match.lastModified);
+            }
+            this.files = ImmutableSet.copyOf(sorted.values());
+            this.lastModified = latest;
+        }
+
+        private Result(ImmutableSet<File> files, long lastModified) {
+            this.files = files;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return The files of several scans in the order of the scans, and their most recent modification time.
+         */
+        static Result combine(Iterable<Result> results) {
+            final ImmutableSet.Builder<File> files = ImmutableSet.builder();
+            long latest = 0;
+            for (Result result : results) {
+                files.addAll(result.files);
+                latest = Math.max(latest, result.lastModified);
+            }
+            return new Result(files.build(), latest);
+        }
+
+        ImmutableSet<File> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return The most recent modification time of the files, or {@code 0} if there are none.
+         */
+        long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static final class Match {
+        private final String relativePath;
+        private final File file;
+        private final long lastModified;
+
+        Match(String relativePath, File file, long lastModified) {
+            this.relativePath = relativePath;
+            this.file = file;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Lists one directory, recording its matching files, and descends into its subdirectories.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final String relativePath;
+        private final Collection<Match> matches;
+
+        DirectoryTask(Path directory, String relativePath, Collection<Match> matches) {
+            this.directory = directory;
+            this.relativePath = relativePath;
+            this.matches = matches;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                invokeAll(list());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * @return The subdirectories that may hold matching files.
+         */
+        List<DirectoryTask> list() throws IOException {
+            final ImmutableList.Builder<DirectoryTask> subdirectories = ImmutableList.builder();
+            final DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+            try {
+                for (Path entry : entries) {
+                    final String name = relativePath + entry.getFileName().toString();
+                    final BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // e.g. a dangling symbolic link, which FileUtils does not report either
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (includes.matchesPatternStart(name, true) && !directoryExcludes.matches(name, true)) {
+                            subdirectories.add(new DirectoryTask(entry, name + File.separator, matches));
+                        }
+                    } else if (includes.matches(name, true) && !excludes.matches(name, true)) {
+                        matches.add(new Match(name, entry.toFile(), attributes.lastModifiedTime().toMillis()));
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+            return subdirectories.build();
+        }
+    }
+
+    /**
+     * Carries an {@link IOException} out of a {@link ForkJoinPool}.
+     */
+    private static final class UncheckedIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
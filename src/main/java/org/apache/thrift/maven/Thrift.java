@@ -20,27 +20,62 @@ package org.apache.thrift.maven;
  */
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.CommandLineUtils;
-import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Lists.newLinkedList;
-import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
 
 /**
  * This class represents an invokable configuration of the {@code thrift}
- * compiler. The actual executable is invoked using the plexus
- * {@link Commandline}.
+ * compiler. The actual executable is invoked directly, see {@link CompilerProcess}.
+ * <p/>
+ * Output is passed line by line to an {@link OutputListener} while {@code thrift} runs. Only the
+ * last lines of a failed invocation are kept, for {@link #getOutput()} and {@link #getError()}.
  * <p/>
  * This class currently only supports generating java source files.
+ * <p/>
+ * When more than one thread is configured the files are compiled concurrently. Each invocation
+ * writes into its own staging directory, and the staged files are moved into the output
+ * directory once every invocation has succeeded. Staging is also used to only replace the
+ * generated files whose content changed, and to normalize the generated files as soon as each
+ * invocation completes, see {@link GeneratedSourceNormalizer}.
+ * <p/>
+ * The thrift path is passed to {@code thrift} and the files are compiled in the order they were added.
+ * <p/>
+ * Every invocation holds a permit of a {@link CompilerPermits} instance while it runs, which bounds the
+ * number of processes across concurrent executions. With {@link CompileDurations} the duration of every
+ * invocation is recorded, and concurrent invocations start with the files that took longest previously.
  *
  * @author gak@google.com (Gregory Kick)
  */
@@ -48,33 +83,73 @@ final class Thrift {
 
     final static String GENERATED_JAVA = "gen-java";
 
+    /**
+     * The number of lines of each stream kept for a failed invocation.
+     */
+    private static final int MAX_CAPTURED_LINES = 200;
+
+    private static final OutputListener IGNORE_OUTPUT = new OutputListener() {
+        public void output(File thriftFile, String line) {
+        }
+
+        public void error(File thriftFile, String line) {
+        }
+    };
+
     private final String executable;
     private final String generator;
     private final ImmutableSet<File> thriftPathElements;
     private final ImmutableSet<File> thriftFiles;
+    private final ImmutableSet<File> recursiveThriftFiles;
     private final File javaOutputDirectory;
-    private final CommandLineUtils.StringStreamConsumer output;
-    private final CommandLineUtils.StringStreamConsumer error;
+    private final int threads;
+    private final boolean writeIfChanged;
+    private ImmutableMap<File, ImmutableSet<String>> generatedFiles = ImmutableMap.of();
+    private final OutputListener listener;
+    private final CompilerPermits permits;
+    private final BuildReport report;
+    private final GeneratedSourceNormalizer normalizer;
+    private final CompileDurations durations;
+    private final AtomicLong permitWaitNanos = new AtomicLong();
+    private final AtomicInteger queuedInvocations = new AtomicInteger();
+    private volatile String output = "";
+    private volatile String error = "";
 
     /**
      * Constructs a new instance. This should only be used by the {@link Builder}.
      *
-     * @param executable          The path to the {@code thrift} executable.
-     * @param generator           The value for the {@code --gen} option.
-     * @param thriftPath          The directories in which to search for imports.
-     * @param thriftFiles         The thrift source files to compile.
-     * @param javaOutputDirectory The directory into which the java source files
-     *                            will be generated.
+     * @param executable           The path to the {@code thrift} executable.
+     * @param generator            The value for the {@code --gen} option.
+     * @param thriftPath           The directories in which to search for imports.
+     * @param thriftFiles          The thrift source files to compile.
+     * @param recursiveThriftFiles The thrift source files that are compiled together with their includes.
+     * @param javaOutputDirectory  The directory into which the java source files
+     *                             will be generated.
+     * @param threads              The maximum number of concurrent {@code thrift} processes.
+     * @param writeIfChanged       Whether existing files with unchanged content are left untouched.
+     * @param listener             Receives the output of each invocation.
+     * @param permits              Bounds the number of concurrent {@code thrift} processes.
+     * @param report               Records the duration of each invocation.
+     * @param normalizer           Normalizes the generated files, or {@code null}.
+     * @param durations            Records the duration of each invocation and orders them, or {@code null}.
      */
     private Thrift(String executable, String generator, ImmutableSet<File> thriftPath,
-                   ImmutableSet<File> thriftFiles, File javaOutputDirectory) {
+                   ImmutableSet<File> thriftFiles, ImmutableSet<File> recursiveThriftFiles, File javaOutputDirectory,
+                   int threads, boolean writeIfChanged, OutputListener listener, CompilerPermits permits,
+                   BuildReport report, GeneratedSourceNormalizer normalizer, CompileDurations durations) {
         this.executable = checkNotNull(executable, "executable");
         this.generator = checkNotNull(generator, "generator");
         this.thriftPathElements = checkNotNull(thriftPath, "thriftPath");
         this.thriftFiles = checkNotNull(thriftFiles, "thriftFiles");
+        this.recursiveThriftFiles = checkNotNull(recursiveThriftFiles, "recursiveThriftFiles");
         this.javaOutputDirectory = checkNotNull(javaOutputDirectory, "javaOutputDirectory");
-        this.error = new CommandLineUtils.StringStreamConsumer();
-        this.output = new CommandLineUtils.StringStreamConsumer();
+        this.threads = threads;
+        this.writeIfChanged = writeIfChanged;
+        this.listener = checkNotNull(listener, "listener");
+        this.permits = checkNotNull(permits, "permits");
+        this.report = checkNotNull(report, "report");
+        this.normalizer = normalizer;
+        this.durations = durations;
     }
 
     /**
@@ -85,14 +160,18 @@ final class Thrift {
      * @throws CommandLineException
      */
     public int compile() throws CommandLineException {
+        if (writeIfChanged || normalizer != null || (threads > 1 && thriftFiles.size() > 1)) {
+            return compileStaged();
+        }
 
         for (File thriftFile : thriftFiles) {
-            Commandline cl = new Commandline();
-            cl.setExecutable(executable);
-            cl.addArguments(buildThriftCommand(thriftFile).toArray(new String[]{}));
-            final int result = CommandLineUtils.executeCommandLine(cl, null, output, error);
+            final CompilerProcess.Tail fileOutput = new CompilerProcess.Tail(MAX_CAPTURED_LINES);
+            final CompilerProcess.Tail fileError = new CompilerProcess.Tail(MAX_CAPTURED_LINES);
+            final int result = execute(thriftFile, javaOutputDirectory, fileOutput, fileError);
 
             if (result != 0) {
+                output = fileOutput.getOutput();
+                error = fileError.getOutput();
                 return result;
             }
         }
@@ -101,6 +180,279 @@ final class Thrift {
         return 0;
     }
 
+    /**
+     * Compiles the thrift files using a bounded pool of workers. Each worker pulls files from a
+     * shared queue, longest first when their durations are known, and generates each of them into a
+     * private staging directory. As soon as one file
+     * fails the remaining work is cancelled, which interrupts (and destroys) any running processes.
+     * <p/>
+     * Once every file has compiled the staged files are moved into the output directory, in the
+     * order the thrift files were added, and the files generated for each thrift file are recorded.
+     *
+     * @return The exit status of the first failing {@code thrift} invocation, or zero.
+     * @throws CommandLineException
+     */
+    private int compileStaged() throws CommandLineException {
+        final File stagingDirectory = getStagingDirectory();
+        final Queue<File> pending = new ConcurrentLinkedQueue<File>(getSchedule());
+        final Map<File, File> stagedFiles = new ConcurrentHashMap<File, File>();
+        final AtomicInteger failure = new AtomicInteger();
+        final int workerCount = Math.max(1, Math.min(threads, thriftFiles.size()));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount,
+                new ThreadFactoryBuilder().setNameFormat("thrift-compiler-%d").setDaemon(true).build());
+        final CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+        final List<Future<Void>> workers = newArrayList();
+        try {
+            resetDirectory(stagingDirectory);
+            final AtomicInteger invocations = new AtomicInteger();
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(completionService.submit(
+                        new Worker(stagingDirectory, invocations, pending, stagedFiles, failure)));
+            }
+
+            for (int i = 0; i < workerCount && failure.get() == 0; i++) {
+                completionService.take().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while waiting for thrift to complete", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CommandLineException) {
+                throw (CommandLineException) e.getCause();
+            }
+            throw new CommandLineException("Error while running thrift", e.getCause());
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to prepare the thrift staging directory", e);
+        } finally {
+            for (Future<Void> worker : workers) {
+                worker.cancel(true);
+            }
+            executor.shutdownNow();
+        }
+
+        final int result = failure.get();
+        try {
+            if (result == 0) {
+                final Map<File, ImmutableSet<String>> generated = newLinkedHashMap();
+                for (File thriftFile : thriftFiles) {
+                    final Set<String> relativePaths = newLinkedHashSet();
+                    syncTree(stagedFiles.get(thriftFile), javaOutputDirectory, "", relativePaths);
+                    generated.put(thriftFile, ImmutableSet.copyOf(relativePaths));
+                }
+                generatedFiles = ImmutableMap.copyOf(generated);
+            }
+            FileUtils.deleteDirectory(stagingDirectory);
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to move generated sources into " + javaOutputDirectory, e);
+        }
+        return result;
+    }
+
+    /**
+     * @return The thrift files in the order they are started: longest first if their durations are recorded,
+     *         otherwise in the order they were added.
+     */
+    private List<File> getSchedule() {
+        if (durations == null) {
+            return thriftFiles.asList();
+        }
+        final Map<File, String> names = newLinkedHashMap();
+        for (File thriftFile : thriftFiles) {
+            names.put(thriftFile, getDisplayName(thriftFile));
+        }
+        return durations.sortLongestFirst(names);
+    }
+
+    /**
+     * Runs {@code thrift} for a single file, passing its output to the listener as it is printed.
+     *
+     * @param output Keeps the last lines printed to standard output.
+     * @param error  Keeps the last lines printed to standard error.
+     * @return The exit status of {@code thrift}.
+     */
+    private int execute(final File thriftFile, File outputDirectory,
+                        final CompilerProcess.Tail output, final CompilerProcess.Tail error)
+            throws CommandLineException {
+        final List<String> command = ImmutableList.<String>builder()
+                .add(executable)
+                .addAll(buildThriftCommand(thriftFile, outputDirectory))
+                .build();
+        try {
+            final long waited = permits.acquire();
+            if (waited > 0) {
+                permitWaitNanos.addAndGet(waited);
+                queuedInvocations.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CommandLineException("Interrupted while waiting to run " + executable, e);
+        }
+        final BuildReport.Span span = report.start(BuildReport.INVOCATION, getDisplayName(thriftFile));
+        int result = -1;
+        try {
+            result = run(thriftFile, command, output, error);
+            return result;
+        } finally {
+            span.end();
+            permits.release();
+            report.count("thriftInvocations", 1);
+            // failed and cancelled invocations do not tell how long the file takes
+            if (durations != null && result == 0) {
+                durations.record(getDisplayName(thriftFile), span.getMillis(), thriftFile.length());
+            }
+        }
+    }
+
+    private int run(final File thriftFile, List<String> command,
+                    final CompilerProcess.Tail output, final CompilerProcess.Tail error) throws CommandLineException {
+        return CompilerProcess.run(command, new StreamConsumer() {
+            public void consumeLine(String line) {
+                output.consumeLine(line);
+                listener.output(thriftFile, line);
+            }
+        }, new StreamConsumer() {
+            public void consumeLine(String line) {
+                error.consumeLine(line);
+                listener.error(thriftFile, line);
+            }
+        });
+    }
+
+    /**
+     * @return The path of a thrift file relative to the thrift path element containing it.
+     */
+    private String getDisplayName(File thriftFile) {
+        for (File thriftPathElement : thriftPathElements) {
+            final String prefix = thriftPathElement.getPath() + File.separator;
+            if (thriftFile.getPath().startsWith(prefix)) {
+                return thriftFile.getPath().substring(prefix.length()).replace(File.separatorChar, '/');
+            }
+        }
+        return thriftFile.getPath();
+    }
+
+    /**
+     * @return The directory under which each invocation gets a private output directory.
+     */
+    private File getStagingDirectory() {
+        return new File(javaOutputDirectory.getParentFile(), javaOutputDirectory.getName() + ".staging");
+    }
+
+    private static void resetDirectory(File directory) throws IOException {
+        if (directory.exists()) {
+            FileUtils.deleteDirectory(directory);
+        }
+        checkState(directory.mkdirs(), "Unable to create %s", directory);
+    }
+
+    /**
+     * Moves every file below {@code source} to the same relative location under {@code target}. When
+     * {@link #writeIfChanged} is set, existing files with identical content are left untouched so that
+     * they keep their timestamps.
+     *
+     * @param relativePaths Collects the paths of the files, relative to {@code target}.
+     */
+    private void syncTree(File source, File target, String prefix, Set<String> relativePaths) throws IOException {
+        final File[] children = source.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            final File destination = new File(target, child.getName());
+            final String relativePath = prefix + child.getName();
+            if (child.isDirectory()) {
+                destination.mkdirs();
+                syncTree(child, destination, relativePath + '/', relativePaths);
+            } else {
+                relativePaths.add(relativePath);
+                if (writeIfChanged && destination.isFile() && Files.equal(child, destination)) {
+                    continue;
+                }
+                if (destination.exists() && !destination.delete()) {
+                    throw new IOException("Unable to replace " + destination);
+                }
+                Files.move(child, destination);
+            }
+        }
+    }
+
+    /**
+     * @return The files generated for each thrift file, relative to the output directory. Only recorded
+     *         when the files are staged, i.e. when compiling in parallel or with write-if-changed enabled.
+     */
+    public ImmutableMap<File, ImmutableSet<String>> getGeneratedFiles() {
+        return generatedFiles;
+    }
+
+    /**
+     * Compiles files from the shared queue, each into a fresh private output directory, until the
+     * queue is drained or another worker has failed.
+     */
+    private final class Worker implements Callable<Void> {
+        private final File stagingDirectory;
+        private final AtomicInteger invocations;
+        private final Queue<File> pending;
+        private final Map<File, File> stagedFiles;
+        private final AtomicInteger failure;
+
+        Worker(File stagingDirectory, AtomicInteger invocations, Queue<File> pending, Map<File, File> stagedFiles,
+               AtomicInteger failure) {
+            this.stagingDirectory = stagingDirectory;
+            this.invocations = invocations;
+            this.pending = pending;
+            this.stagedFiles = stagedFiles;
+            this.failure = failure;
+        }
+
+        public Void call() throws CommandLineException {
+            File thriftFile;
+            while (failure.get() == 0 && !Thread.currentThread().isInterrupted()
+                    && (thriftFile = pending.poll()) != null) {
+                final File outputDirectory = new File(stagingDirectory, Integer.toString(invocations.getAndIncrement()));
+                checkState(outputDirectory.mkdirs(), "Unable to create %s", outputDirectory);
+                final CompilerProcess.Tail fileOutput = new CompilerProcess.Tail(MAX_CAPTURED_LINES);
+                final CompilerProcess.Tail fileError = new CompilerProcess.Tail(MAX_CAPTURED_LINES);
+                final int result = execute(thriftFile, outputDirectory, fileOutput, fileError);
+
+                if (result != 0) {
+                    // only the first failure is reported, later ones are usually caused by cancellation.
+                    if (failure.compareAndSet(0, result)) {
+                        output = fileOutput.getOutput();
+                        error = fileError.getOutput();
+                    }
+                    break;
+                }
+                if (normalizer != null) {
+                    try {
+                        normalizer.normalizeTree(outputDirectory);
+                    } catch (IOException e) {
+                        throw new CommandLineException("Unable to normalize the files generated from " + thriftFile, e);
+                    }
+                }
+                stagedFiles.put(thriftFile, outputDirectory);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Asks the {@code thrift} executable for its version.
+     *
+     * @param executable The path to the {@code thrift} executable.
+     * @return The version string printed by {@code thrift -version}.
+     * @throws CommandLineException If the executable cannot be run or reports an error.
+     */
+    static String getVersion(String executable) throws CommandLineException {
+        final CommandLineUtils.StringStreamConsumer versionOutput = new CommandLineUtils.StringStreamConsumer();
+        final CommandLineUtils.StringStreamConsumer versionError = new CommandLineUtils.StringStreamConsumer();
+        final int result = CompilerProcess.run(ImmutableList.of(executable, "-version"), versionOutput, versionError);
+        if (result != 0) {
+            throw new CommandLineException(executable + " -version failed: " + versionError.getOutput());
+        }
+        return versionOutput.getOutput().trim();
+    }
+
     /**
      * Creates the command line arguments.
      * <p/>
@@ -110,6 +462,10 @@ final class Thrift {
      * @return A list consisting of the executable followed by any arguments.
      */
     ImmutableList<String> buildThriftCommand(final File thriftFile) {
+        return buildThriftCommand(thriftFile, javaOutputDirectory);
+    }
+
+    private ImmutableList<String> buildThriftCommand(final File thriftFile, final File outputDirectory) {
         final List<String> command = newLinkedList();
         // add the executable
         for (File thriftPathElement : thriftPathElements) {
@@ -117,9 +473,12 @@ final class Thrift {
             command.add(thriftPathElement.toString());
         }
         command.add("-out");
-        command.add(javaOutputDirectory.toString());
+        command.add(outputDirectory.toString());
         command.add("--gen");
         command.add(generator);
+        if (recursiveThriftFiles.contains(thriftFile)) {
+            command.add("-r");
+        }
         command.add(thriftFile.toString());
         return ImmutableList.copyOf(command);
     }
@@ -128,14 +487,44 @@ final class Thrift {
      * @return the output
      */
     public String getOutput() {
-        return output.getOutput();
+        return output;
     }
 
     /**
      * @return the error
      */
     public String getError() {
-        return error.getOutput();
+        return error;
+    }
+
+    /**
+     * @return The number of invocations that had to wait for a permit.
+     */
+    int getQueuedInvocations() {
+        return queuedInvocations.get();
+    }
+
+    /**
+     * @return The total time invocations waited for a permit, in milliseconds.
+     */
+    long getPermitWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(permitWaitNanos.get());
+    }
+
+    /**
+     * Receives the output of {@code thrift} while it runs. Invocations may run concurrently.
+     */
+    interface OutputListener {
+
+        /**
+         * Called for each line {@code thrift} prints to standard output.
+         */
+        void output(File thriftFile, String line);
+
+        /**
+         * Called for each line {@code thrift} prints to standard error.
+         */
+        void error(File thriftFile, String line);
     }
 
     /**
@@ -148,7 +537,15 @@ final class Thrift {
         private final File javaOutputDirectory;
         private Set<File> thriftPathElements;
         private Set<File> thriftFiles;
+        private Set<File> recursiveThriftFiles;
         private String generator;
+        private int threads = 1;
+        private boolean writeIfChanged;
+        private OutputListener listener = IGNORE_OUTPUT;
+        private CompilerPermits permits;
+        private BuildReport report;
+        private GeneratedSourceNormalizer normalizer;
+        private CompileDurations durations;
 
         /**
          * Constructs a new builder. The two parameters are present as they are
@@ -165,8 +562,10 @@ final class Thrift {
             this.executable = checkNotNull(executable, "executable");
             this.javaOutputDirectory = checkNotNull(javaOutputDirectory);
             checkArgument(javaOutputDirectory.isDirectory());
-            this.thriftFiles = newHashSet();
-            this.thriftPathElements = newHashSet();
+            // the order of the thrift path and of the files must not vary from build to build
+            this.thriftFiles = newLinkedHashSet();
+            this.recursiveThriftFiles = newLinkedHashSet();
+            this.thriftPathElements = newLinkedHashSet();
         }
 
         /**
@@ -189,6 +588,19 @@ final class Thrift {
             return this;
         }
 
+        /**
+         * Adds a thrift file to be compiled with {@code thrift -r}, which also generates the code for every
+         * file it (transitively) includes. The same constraints as for {@link #addThriftFile(File)} apply.
+         *
+         * @param thriftFile
+         * @return The builder.
+         */
+        public Builder addRecursiveThriftFile(File thriftFile) {
+            addThriftFile(thriftFile);
+            recursiveThriftFiles.add(thriftFile);
+            return this;
+        }
+
         /**
          * Adds the option string for the Thrift executable's {@code --gen} parameter.
          *
@@ -202,6 +614,91 @@ final class Thrift {
             return this;
         }
 
+        /**
+         * Sets the maximum number of {@code thrift} processes that may run concurrently.
+         *
+         * @param threads
+         * @return The builder
+         * @throws IllegalArgumentException If {@code threads} is less than one.
+         */
+        public Builder setThreads(int threads) {
+            checkArgument(threads > 0, "threads must be positive");
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Generates into a staging area and only replaces the files in the output directory whose
+         * content changed, so that unchanged files keep their timestamps.
+         *
+         * @param writeIfChanged
+         * @return The builder
+         */
+        public Builder setWriteIfChanged(boolean writeIfChanged) {
+            this.writeIfChanged = writeIfChanged;
+            return this;
+        }
+
+        /**
+         * Sets the listener that receives the output of {@code thrift} while it runs. By default the
+         * output is only kept for failed invocations.
+         *
+         * @param listener
+         * @return The builder
+         */
+        public Builder setOutputListener(OutputListener listener) {
+            this.listener = checkNotNull(listener, "listener");
+            return this;
+        }
+
+        /**
+         * Sets the permits that bound the number of concurrent {@code thrift} processes, possibly shared
+         * with other instances. By default only the threads of this instance bound them.
+         *
+         * @param permits
+         * @return The builder
+         */
+        public Builder setCompilerPermits(CompilerPermits permits) {
+            this.permits = checkNotNull(permits, "permits");
+            return this;
+        }
+
+        /**
+         * Sets the report that records the duration of each invocation.
+         *
+         * @param report
+         * @return The builder
+         */
+        public Builder setBuildReport(BuildReport report) {
+            this.report = checkNotNull(report, "report");
+            return this;
+        }
+
+        /**
+         * Sets the normalizer applied to the files generated by each invocation. Normalized files are always
+         * staged. By default the files are not normalized.
+         *
+         * @param normalizer
+         * @return The builder
+         */
+        public Builder setNormalizer(GeneratedSourceNormalizer normalizer) {
+            this.normalizer = checkNotNull(normalizer, "normalizer");
+            return this;
+        }
+
+        /**
+         * Sets the history that records the duration of each invocation, and orders concurrent invocations
+         * longest first. By default durations are not recorded and files are compiled in the order they were
+         * added.
+         *
+         * @param durations
+         * @return The builder
+         */
+        public Builder setCompileDurations(CompileDurations durations) {
+            this.durations = checkNotNull(durations, "durations");
+            return this;
+        }
+
         private void checkThriftFileIsInThriftPath(File thriftFile) {
             assert thriftFile.isFile();
             checkState(checkThriftFileIsInThriftPathHelper(thriftFile.getParentFile()));
@@ -262,7 +759,10 @@ final class Thrift {
         public Thrift build() {
             checkState(!thriftFiles.isEmpty());
             return new Thrift(executable, generator, ImmutableSet.copyOf(thriftPathElements),
-                    ImmutableSet.copyOf(thriftFiles), javaOutputDirectory);
+                    ImmutableSet.copyOf(thriftFiles), ImmutableSet.copyOf(recursiveThriftFiles),
+                    javaOutputDirectory, threads, writeIfChanged, listener,
+                    permits == null ? new CompilerPermits(Math.max(threads, 1)) : permits,
+                    report == null ? new BuildReport() : report, normalizer, durations);
         }
     }
 }
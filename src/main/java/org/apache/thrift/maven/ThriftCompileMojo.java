@@ -19,11 +19,7 @@ package org.apache.thrift.maven;
  * under the License.
  */
 
-import com.google.common.collect.ImmutableList;
-import org.apache.maven.artifact.Artifact;
-
 import java.io.File;
-import java.util.List;
 
 /**
  * This mojo executes the {@code thrift} compiler for generating java sources
@@ -37,46 +33,18 @@ import java.util.List;
  * @requiresDependencyResolution compile
  */
 
-public final class ThriftCompileMojo extends AbstractThriftMojo {
-
-    /**
-     * The source directories containing the sources to be compiled.
-     *
-     * @parameter default-value="${basedir}/src/main/thrift"
-     * @required
-     */
-    private File thriftSourceRoot;
+public final class ThriftCompileMojo extends AbstractMainThriftMojo {
 
     /**
-     * This is the directory into which the {@code .java} will be created.
+     * The file the build report is written to, see {@code writeReport}.
      *
-     * @parameter default-value="${project.build.directory}/generated-sources/thrift"
+     * @parameter default-value="${project.build.directory}/thrift-reports/compile.json"
      * @required
      */
-    private File outputDirectory;
-
-    @Override
-    protected List<Artifact> getDependencyArtifacts() {
-        // TODO(gak): maven-project needs generics
-        @SuppressWarnings("unchecked")
-        List<Artifact> compileArtifacts = project.getCompileArtifacts();
-        return compileArtifacts;
-    }
-
-    @Override
-    protected File getOutputDirectory() {
-        return outputDirectory;
-    }
-
-    @Override
-    protected File getThriftSourceRoot() {
-        return thriftSourceRoot;
-    }
+    private File reportFile;
 
     @Override
-    protected void attachFiles() {
-        project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
-        projectHelper.addResource(project, thriftSourceRoot.getAbsolutePath(),
-                ImmutableList.of("**/*.thrift"), ImmutableList.of());
+    protected File getReportFile() {
+        return reportFile;
     }
 }
@@ -0,0 +1,245 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.cli.CommandLineException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A resolved {@code thrift} executable together with the version it reports and the hash of its binary.
+ * <p/>
+ * Probing the version starts a process and hashing reads the whole binary, so the results are cached in
+ * memory for the lifetime of the JVM and in a directory shared by every build on this machine. A cached
+ * entry is used as long as the size and modification time of the executable are unchanged.
+ */
+final class ThriftCompiler {
+
+    private static final ConcurrentMap<File, ThriftCompiler> COMPILERS = new ConcurrentHashMap<File, ThriftCompiler>();
+
+    private static final String PATH = "path";
+    private static final String SIZE = "size";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String HASH = "hash";
+    private static final String VERSION = "version";
+
+    private final File executable;
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+    private final String version;
+
+    private ThriftCompiler(File executable, long size, long lastModified, String hash, String version) {
+        this.executable = checkNotNull(executable, "executable");
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = checkNotNull(hash, "hash");
+        this.version = checkNotNull(version, "version");
+    }
+
+    /**
+     * Resolves an executable and returns its fingerprint, probing it only if it is not cached.
+     *
+     * @param executable     A path, or the name of an executable to look up on the {@code $PATH}.
+     * @param cacheDirectory The directory holding the fingerprints cached by previous builds.
+     * @throws CommandLineException If the executable cannot be found or does not report its version.
+     */
+    static ThriftCompiler resolve(String executable, File cacheDirectory) throws CommandLineException, IOException {
+        final File file = which(executable);
+        final ThriftCompiler cached = COMPILERS.get(file);
+        if (cached != null && cached.isCurrent()) {
+            return cached;
+        }
+
+        final File cacheFile = new File(cacheDirectory, getCacheName(file));
+        ThriftCompiler compiler = read(cacheFile);
+        if (compiler == null || !compiler.executable.equals(file) || !compiler.isCurrent()) {
+            // read the attributes before probing, so a concurrent update is detected by the next build
+            final long size = file.length();
+            final long lastModified = file.lastModified();
+            compiler = new ThriftCompiler(file, size, lastModified, BuildState.sha1(file),
+                    Thrift.getVersion(file.getPath()));
+            compiler.write(cacheFile);
+        }
+        COMPILERS.put(file, compiler);
+        return compiler;
+    }
+
+    /**
+     * Finds an executable the way a shell would.
+     *
+     * @return The absolute location of the executable.
+     * @throws CommandLineException If it does not exist.
+     */
+    static File which(String executable) throws CommandLineException {
+        if (executable.indexOf('/') >= 0 || executable.indexOf(File.separatorChar) >= 0) {
+            final File file = new File(executable).getAbsoluteFile();
+            if (!file.isFile()) {
+                throw new CommandLineException(executable + " does not exist");
+            }
+            return file;
+        }
+        final String path = System.getenv("PATH");
+        final String extensions = System.getenv("PATHEXT");
+        if (path != null) {
+            for (String directory : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(path)) {
+                final File file = new File(directory, executable).getAbsoluteFile();
+                if (file.isFile() && file.canExecute()) {
+                    return file;
+                }
+                if (extensions != null) {
+                    for (String extension : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(extensions)) {
+                        final File withExtension = new File(directory, executable + extension.toLowerCase())
+                                .getAbsoluteFile();
+                        if (withExtension.isFile()) {
+                            return withExtension;
+                        }
+                    }
+                }
+            }
+        }
+        throw new CommandLineException(executable + " was not found on the PATH");
+    }
+
+    /**
+     * @return The absolute location of the executable.
+     */
+    File getExecutable() {
+        return executable;
+    }
+
+    /**
+     * @return The output of {@code thrift -version}, e.g. {@code Thrift version 0.9.1}.
+     */
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The version number, i.e. the last word reported by {@code thrift -version}.
+     */
+    String getVersionNumber() {
+        final String trimmed = version.trim();
+        return trimmed.substring(trimmed.lastIndexOf(' ') + 1);
+    }
+
+    /**
+     * @return The SHA-1 hash of the executable.
+     */
+    String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return The version and hash of the executable, which identify the generated code it produces.
+     */
+    String getFingerprint() {
+        return version + " (" + hash + ")";
+    }
+
+    private boolean isCurrent() {
+        return executable.length() == size && executable.lastModified() == lastModified;
+    }
+
+    /**
+     * @return The name of the file caching the fingerprint of an executable, derived from its location.
+     */
+    private static String getCacheName(File executable) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return AbstractThriftMojo.toHexString(digest.digest(executable.getPath().getBytes(Charsets.UTF_8)))
+                    + ".properties";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not supported", e);
+        }
+    }
+
+    private static ThriftCompiler read(File cacheFile) throws IOException {
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(cacheFile);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        final String path = properties.getProperty(PATH);
+        final String size = properties.getProperty(SIZE);
+        final String lastModified = properties.getProperty(LAST_MODIFIED);
+        final String hash = properties.getProperty(HASH);
+        final String version = properties.getProperty(VERSION);
+        if (path == null || size == null || lastModified == null || hash == null || version == null) {
+            return null;
+        }
+        try {
+            return new ThriftCompiler(new File(path), Long.parseLong(size), Long.parseLong(lastModified), hash, version);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void write(File cacheFile) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(PATH, executable.getPath());
+        properties.setProperty(SIZE, String.valueOf(size));
+        properties.setProperty(LAST_MODIFIED, String.valueOf(lastModified));
+        properties.setProperty(HASH, hash);
+        properties.setProperty(VERSION, version);
+
+        // written to a temporary file and renamed, so concurrent builds never read a partial entry
+        Files.createParentDirs(cacheFile);
+        final File temporaryFile = new File(cacheFile.getParentFile(), cacheFile.getName() + '.' + UUID.randomUUID());
+        final OutputStream out = new FileOutputStream(temporaryFile);
+        try {
+            properties.store(out, "thrift compiler fingerprint");
+        } finally {
+            out.close();
+        }
+        if (!temporaryFile.renameTo(cacheFile)) {
+            cacheFile.delete();
+            if (!temporaryFile.renameTo(cacheFile)) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return executable + " (" + version + ')';
+    }
+}
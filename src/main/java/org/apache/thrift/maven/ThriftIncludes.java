@@ -0,0 +1,192 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newLinkedHashSet;
+
+/**
+ * Resolves the {@code include} statements of thrift files the same way the {@code thrift}
+ * compiler does: relative to the directory of the including file first, then against each
+ * element of the thrift path in order.
+ * <p/>
+ * Results are memoized, so a single instance should be used for one set of thrift path elements.
+ */
+final class ThriftIncludes {
+
+    private static final Pattern BLOCK_COMMENT = Pattern.compile("/\\*.*?\\*/", Pattern.DOTALL);
+
+    private static final Pattern LINE_COMMENT = Pattern.compile("(//|#).*$", Pattern.MULTILINE);
+
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*include\\s+[\"']([^\"']+)[\"']", Pattern.MULTILINE);
+
+    private final ImmutableList<File> thriftPath;
+    private final Map<File, ImmutableSet<File>> includes = newHashMap();
+    private final Map<File, ImmutableSet<File>> closures = newHashMap();
+
+    /**
+     * @param thriftPath The directories searched for included files, in the order passed to {@code thrift}.
+     */
+    ThriftIncludes(Iterable<File> thriftPath) {
+        this.thriftPath = ImmutableList.copyOf(checkNotNull(thriftPath, "thriftPath"));
+    }
+
+    /**
+     * Reads the targets of the {@code include} statements in a thrift file, ignoring commented out lines.
+     *
+     * @param thriftFile The file to read.
+     * @return The included paths exactly as written in the file.
+     * @throws IOException If the file cannot be read.
+     */
+    static ImmutableList<String> parse(File thriftFile) throws IOException {
+        String content = Files.toString(thriftFile, Charsets.UTF_8);
+        content = BLOCK_COMMENT.matcher(content).replaceAll("");
+        content = LINE_COMMENT.matcher(content).replaceAll("");
+
+        final List<String> result = newArrayList();
+        final Matcher matcher = INCLUDE.matcher(content);
+        while (matcher.find()) {
+            result.add(matcher.group(1));
+        }
+        return ImmutableList.copyOf(result);
+    }
+
+    /**
+     * Normalizes a file so that the same file reached through different includes compares equal.
+     */
+    static File normalize(File file) {
+        final String normalized = FileUtils.normalize(file.getAbsolutePath());
+        return normalized == null ? file.getAbsoluteFile() : new File(normalized);
+    }
+
+    /**
+     * Resolves a single include.
+     *
+     * @param includingFile The file containing the include statement.
+     * @param include       The included path as written in the file.
+     * @return The included file or {@code null} if it cannot be found.
+     */
+    File resolve(File includingFile, String include) {
+        final File includeFile = new File(include);
+        if (includeFile.isAbsolute()) {
+            return includeFile.isFile() ? normalize(includeFile) : null;
+        }
+        final File sibling = new File(includingFile.getParentFile(), include);
+        if (sibling.isFile()) {
+            return normalize(sibling);
+        }
+        for (File thriftPathElement : thriftPath) {
+            final File candidate = new File(thriftPathElement, include);
+            if (candidate.isFile()) {
+                return normalize(candidate);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The files directly included by {@code thriftFile}. Includes that cannot be resolved are skipped,
+     *         the compiler will report them.
+     */
+    ImmutableSet<File> getIncludes(File thriftFile) throws IOException {
+        final File key = normalize(thriftFile);
+        ImmutableSet<File> result = includes.get(key);
+        if (result == null) {
+            final Set<File> resolved = newLinkedHashSet();
+            for (String include : parse(key)) {
+                final File includeFile = resolve(key, include);
+                if (includeFile != null) {
+                    resolved.add(includeFile);
+                }
+            }
+            result = ImmutableSet.copyOf(resolved);
+            includes.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return Every file reachable through the includes of {@code thriftFile}, not including the file itself.
+     */
+    ImmutableSet<File> getClosure(File thriftFile) throws IOException {
+        final File key = normalize(thriftFile);
+        ImmutableSet<File> result = closures.get(key);
+        if (result == null) {
+            final Set<File> closure = newLinkedHashSet();
+            collect(key, closure);
+            closure.remove(key);
+            result = ImmutableSet.copyOf(closure);
+            closures.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the files that can be compiled with {@code thrift -r} in place of the whole set. A file qualifies
+     * when everything it includes is part of the set, since {@code -r} would otherwise generate code for
+     * files outside of it. Of those files only the ones that are not included by another qualifying file
+     * are returned; the others are generated along with them.
+     *
+     * @param thriftFiles The files to compile.
+     * @return The root files, normalized.
+     * @throws IOException If a file cannot be read.
+     */
+    ImmutableSet<File> getRecursiveRoots(Iterable<File> thriftFiles) throws IOException {
+        final Set<File> compiled = newLinkedHashSet();
+        for (File thriftFile : thriftFiles) {
+            compiled.add(normalize(thriftFile));
+        }
+        final Set<File> candidates = newLinkedHashSet();
+        for (File thriftFile : compiled) {
+            if (compiled.containsAll(getClosure(thriftFile))) {
+                candidates.add(thriftFile);
+            }
+        }
+        final Set<File> roots = newLinkedHashSet(candidates);
+        for (File candidate : candidates) {
+            roots.removeAll(getClosure(candidate));
+        }
+        return ImmutableSet.copyOf(roots);
+    }
+
+    private void collect(File thriftFile, Set<File> closure) throws IOException {
+        for (File include : getIncludes(thriftFile)) {
+            if (closure.add(include)) {
+                collect(include, closure);
+            }
+        }
+    }
+}
@@ -40,6 +40,14 @@ public final class ThriftTestCompileMojo extends AbstractThriftMojo {
      */
     private File thriftTestSourceRoot;
 
+    /**
+     * The source directories to compile instead of {@code thriftTestSourceRoot}, each optionally with its own
+     * includes and excludes, see {@link SourceRoot}. They are compiled together and share the thrift path.
+     *
+     * @parameter
+     */
+    private SourceRoot[] thriftTestSourceRoots = new SourceRoot[]{};
+
     /**
      * This is the directory into which the {@code .java} will be created.
      *
@@ -48,11 +56,23 @@ public final class ThriftTestCompileMojo extends AbstractThriftMojo {
      */
     private File outputDirectory;
 
+    /**
+     * The file the build report is written to, see {@code writeReport}.
+     *
+     * @parameter default-value="${project.build.directory}/thrift-reports/test-compile.json"
+     * @required
+     */
+    private File reportFile;
+
     @Override
-    protected void attachFiles() {
-        project.addTestCompileSourceRoot(outputDirectory.getAbsolutePath());
-        projectHelper.addTestResource(project, thriftTestSourceRoot.getAbsolutePath(),
-                ImmutableList.of("**/*.thrift"), ImmutableList.of());
+    protected void attachFiles(ImmutableList<File> compileSourceRoots, ImmutableList<File> resourceDirectories) {
+        for (File compileSourceRoot : compileSourceRoots) {
+            project.addTestCompileSourceRoot(compileSourceRoot.getAbsolutePath());
+        }
+        for (File resourceDirectory : resourceDirectories) {
+            projectHelper.addTestResource(project, resourceDirectory.getAbsolutePath(),
+                    ImmutableList.of("**/*.thrift"), ImmutableList.of());
+        }
     }
 
     @Override
@@ -72,4 +92,24 @@ public final class ThriftTestCompileMojo extends AbstractThriftMojo {
     protected File getThriftSourceRoot() {
         return thriftTestSourceRoot;
     }
+
+    @Override
+    protected SourceRoot[] getThriftSourceRoots() {
+        return thriftTestSourceRoots;
+    }
+
+    @Override
+    protected File getReportFile() {
+        return reportFile;
+    }
+
+    @Override
+    protected File getClassesDirectory() {
+        return new File(project.getBuild().getTestOutputDirectory());
+    }
+
+    @Override
+    protected String getCompilerExecution() {
+        return "default-testCompile";
+    }
 }
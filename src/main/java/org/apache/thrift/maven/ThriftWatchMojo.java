@@ -0,0 +1,62 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+import java.io.File;
+
+/**
+ * This mojo compiles the thrift files like {@code thrift:compile}, then keeps running and recompiles the thrift
+ * files affected by each change to the sources, until the build is interrupted. It is meant to be run next to
+ * an IDE or a continuous compiler, e.g. {@code mvn thrift:watch}.
+ *
+ * @goal watch
+ * @requiresDependencyResolution compile
+ */
+public final class ThriftWatchMojo extends AbstractMainThriftMojo {
+
+    /**
+     * The file the build report is written to, see {@code writeReport}.
+     *
+     * @parameter default-value="${project.build.directory}/thrift-reports/watch.json"
+     * @required
+     */
+    private File reportFile;
+
+    /**
+     * The time in milliseconds to wait for further changes before recompiling, so that the files saved together,
+     * e.g. by a refactoring or a version control update, are compiled together.
+     *
+     * @parameter expression="${thrift.watch.debounce}" default-value="100"
+     */
+    private long debounce;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        watch(debounce);
+    }
+
+    @Override
+    protected File getReportFile() {
+        return reportFile;
+    }
+}
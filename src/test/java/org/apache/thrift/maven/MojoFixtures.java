@@ -0,0 +1,145 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.project.DefaultMavenProjectHelper;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Creates mojos configured the way Maven configures them, for tests that run a whole execution.
+ */
+final class MojoFixtures {
+
+    private MojoFixtures() {
+    }
+
+    /**
+     * Creates a compile mojo of a project below {@code root}, which compiles {@code root/src/main/thrift} into
+     * {@code root/target/generated-sources/thrift} with the {@code java} generator. Everything else is left
+     * at its default value.
+     */
+    static <T extends AbstractMainThriftMojo> T createMojo(T mojo, File root) throws Exception {
+        final MavenProject project = new MavenProject();
+        project.setFile(new File(root, "pom.xml"));
+        project.getBuild().setDirectory(new File(root, "target").getPath());
+        project.getBuild().setOutputDirectory(new File(root, "target/classes").getPath());
+        setField(mojo, "project", project);
+        setField(mojo, "projectHelper", new DefaultMavenProjectHelper());
+        setField(mojo, "buildContext", new DefaultBuildContext());
+        setField(mojo, "localRepository", createLocalRepository(new File(root, "repository")));
+        setField(mojo, "thriftExecutable", "thrift");
+        setField(mojo, "generator", "java");
+        setField(mojo, "thriftSourceRoot", new File(root, "src/main/thrift"));
+        setField(mojo, "outputDirectory", new File(root, "target/generated-sources/thrift"));
+        setField(mojo, "temporaryThriftFileDirectory", new File(root, "target/thrift-dependencies"));
+        setField(mojo, "buildStateDirectory", new File(root, "target/thrift-state"));
+        setField(mojo, "reportFile", new File(root, "target/thrift-reports/compile.json"));
+        setField(mojo, "hashDependentPaths", true);
+        setField(mojo, "dependencyStoreMaxSize", 512L);
+        setField(mojo, "buildCacheMaxSize", 512L);
+        setField(mojo, "reportFormat", "json");
+        return mojo;
+    }
+
+    static void setField(Object object, String name, Object value) throws Exception {
+        Class<?> type = object.getClass();
+        while (type != null) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(object, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    static Object getField(Object object, String name) throws Exception {
+        Class<?> type = object.getClass();
+        while (type != null) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(object);
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    /**
+     * @return A local repository in {@code basedir}, whose parent receives the compiler and cache directories.
+     */
+    private static ArtifactRepository createLocalRepository(final File basedir) {
+        return (ArtifactRepository) Proxy.newProxyInstance(MojoFixtures.class.getClassLoader(),
+                new Class<?>[]{ArtifactRepository.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getBasedir".equals(method.getName())) {
+                            return basedir.getPath();
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Writes a thrift file, creating its directory.
+     */
+    static File writeThriftFile(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getPath(), "UTF-8", content);
+        return file;
+    }
+
+    /**
+     * Writes a jar holding the given thrift entries, given as pairs of name and content.
+     */
+    static File writeJar(File jar, String... entries) throws IOException {
+        jar.getParentFile().mkdirs();
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new JarEntry(entries[i]));
+                out.write(entries[i + 1].getBytes(Charsets.UTF_8));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,226 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBuildCache {
+
+    private File testRootDir;
+    private File cacheDir;
+    private File outputDir;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-build-cache-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+
+        cacheDir = new File(testRootDir, "cache");
+        outputDir = new File(testRootDir, "output");
+        Files.createParentDirs(new File(outputDir, "shared/SharedService.java"));
+        Files.write("class SharedService {}", new File(outputDir, "shared/SharedService.java"), Charsets.UTF_8);
+        Files.write("class SharedStruct {}", new File(outputDir, "shared/SharedStruct.java"), Charsets.UTF_8);
+    }
+
+    @Test
+    public void testRestoreIsIdentical() throws Exception {
+        final BuildCache cache = new BuildCache(cacheDir, 1024 * 1024);
+        assertNull(cache.restore("key", outputDir));
+
+        cache.store("key", outputDir, ImmutableMap.of("shared.thrift",
+                ImmutableSet.of("shared/SharedService.java", "shared/SharedStruct.java")));
+        FileUtils.cleanDirectory(outputDir);
+
+        final BuildCache.CachedTree cachedTree = cache.restore("key", outputDir);
+        assertNotNull(cachedTree);
+        assertEquals(ImmutableSet.of("shared/SharedService.java", "shared/SharedStruct.java"), cachedTree.getFiles());
+        assertEquals(ImmutableSet.of("shared/SharedService.java", "shared/SharedStruct.java"),
+                cachedTree.getOutputs().get("shared.thrift"));
+        assertEquals("class SharedService {}",
+                Files.toString(new File(outputDir, "shared/SharedService.java"), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+        final File first = new File(cacheDir, "first.zip");
+        new BuildCache(cacheDir, 1024 * 1024).store("first", outputDir, ImmutableMap.<String, ImmutableSet<String>>of());
+        assertTrue(first.setLastModified(System.currentTimeMillis() - 60000));
+
+        // only one entry fits
+        new BuildCache(cacheDir, first.length() + 1)
+                .store("second", outputDir, ImmutableMap.<String, ImmutableSet<String>>of());
+
+        assertFalse(first.exists());
+        assertTrue(new File(cacheDir, "second.zip").exists());
+    }
+
+    @Test
+    public void testEntryOutsideOutputDirectoryIsAMiss() throws Exception {
+        final File archive = new File(cacheDir, "key.zip");
+        Files.createParentDirs(archive);
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            out.putNextEntry(new ZipEntry("files/shared/SharedStruct.java"));
+            out.write("class SharedStruct {}".getBytes(Charsets.UTF_8));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("files/../escaped.java"));
+            out.write("class Escaped {}".getBytes(Charsets.UTF_8));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+
+        assertNull(new BuildCache(cacheDir, 1024 * 1024).restore("key", outputDir));
+        assertFalse(new File(testRootDir, "escaped.java").exists());
+        assertFalse(archive.exists());
+    }
+
+    @Test
+    public void testRemoteCacheOverHttp() throws Exception {
+        final Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+        final HttpServer server = startServer(entries);
+        try {
+            final String url = "http://localhost:" + server.getAddress().getPort() + "/cache";
+            new BuildCache(cacheDir, 1024 * 1024, RemoteCache.create(url, 5000), true)
+                    .store("key", outputDir, ImmutableMap.<String, ImmutableSet<String>>of());
+            assertTrue(entries.containsKey("/cache/key.zip"));
+            FileUtils.cleanDirectory(outputDir);
+
+            // another machine fetches the entry
+            final BuildCache otherCache = new BuildCache(new File(testRootDir, "other"), 1024 * 1024,
+                    RemoteCache.create(url, 5000), true);
+            final BuildCache.CachedTree cachedTree = otherCache.restore("key", outputDir);
+            assertNotNull(cachedTree);
+            assertTrue(cachedTree.isFetched());
+            assertNull(otherCache.getRemoteFailure());
+            assertEquals("class SharedService {}",
+                    Files.toString(new File(outputDir, "shared/SharedService.java"), Charsets.UTF_8));
+
+            // a corrupted entry is a miss
+            final byte[] archive = entries.get("/cache/key.zip");
+            archive[archive.length / 2] ^= 1;
+            final BuildCache thirdCache = new BuildCache(new File(testRootDir, "third"), 1024 * 1024,
+                    RemoteCache.create(url, 5000), true);
+            assertNull(thirdCache.restore("key", outputDir));
+            assertNull(thirdCache.getRemoteFailure());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testUnavailableRemoteCacheIsAMiss() throws Exception {
+        final HttpServer server = startServer(new ConcurrentHashMap<String, byte[]>());
+        final String url = "http://localhost:" + server.getAddress().getPort() + "/cache";
+        server.stop(0);
+
+        final BuildCache cache = new BuildCache(cacheDir, 1024 * 1024, RemoteCache.create(url, 5000), true);
+        assertNull(cache.restore("key", outputDir));
+        assertNotNull(cache.getRemoteFailure());
+        // the local cache still works
+        cache.store("key", outputDir, ImmutableMap.<String, ImmutableSet<String>>of());
+        assertTrue(new File(cacheDir, "key.zip").exists());
+
+        final BuildCache missingDirectory = new BuildCache(new File(testRootDir, "other"), 1024 * 1024,
+                RemoteCache.create(new File(testRootDir, "missing").getPath(), 5000), true);
+        assertNull(missingDirectory.restore("key", outputDir));
+        assertNotNull(missingDirectory.getRemoteFailure());
+    }
+
+    @Test
+    public void testRemoteCacheInDirectory() throws Exception {
+        final File remoteDir = new File(testRootDir, "remote");
+        assertTrue(remoteDir.mkdir());
+        new BuildCache(cacheDir, 1024 * 1024, RemoteCache.create(remoteDir.getPath(), 5000), true)
+                .store("key", outputDir, ImmutableMap.<String, ImmutableSet<String>>of());
+        assertTrue(new File(remoteDir, "key.zip.sha256").exists());
+
+        final BuildCache otherCache = new BuildCache(new File(testRootDir, "other"), 1024 * 1024,
+                RemoteCache.create(remoteDir.getPath(), 5000), false);
+        assertTrue(otherCache.restore("key", outputDir).isFetched());
+    }
+
+    /**
+     * Starts a server storing the bodies of {@code PUT} requests and serving them to {@code GET} requests.
+     */
+    private static HttpServer startServer(final Map<String, byte[]> entries) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                final String path = exchange.getRequestURI().getPath();
+                if (exchange.getRequestMethod().equals("PUT")) {
+                    entries.put(path, ByteStreams.toByteArray(exchange.getRequestBody()));
+                    exchange.sendResponseHeaders(201, -1);
+                } else if (entries.containsKey(path)) {
+                    final byte[] content = entries.get(path);
+                    exchange.sendResponseHeaders(200, content.length);
+                    final OutputStream out = exchange.getResponseBody();
+                    out.write(content);
+                    out.close();
+                } else {
+                    exchange.sendResponseHeaders(404, -1);
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Set;
+
+import static com.google.common.collect.Sets.newHashSet;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBuildReport {
+
+    private File testRootDir;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-report-test");
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+    }
+
+    @Test
+    public void testInvocationsAreTimed() throws Exception {
+        final File idlDir = new File("src/test/resources/idl");
+        final BuildReport report = new BuildReport();
+        final Thrift thrift = new Thrift.Builder("thrift", testRootDir)
+                .setGenerator("java")
+                .addThriftPathElement(idlDir)
+                .addThriftFile(new File(idlDir, "shared.thrift"))
+                .addThriftFile(new File(idlDir, "tutorial.thrift"))
+                .setThreads(2)
+                .setBuildReport(report)
+                .build();
+
+        assertEquals(0, thrift.compile());
+        assertEquals(2, report.getCount("thriftInvocations"));
+        final Set<String> names = newHashSet();
+        for (BuildReport.Span span : report.getSpans()) {
+            names.add(span.getName());
+        }
+        assertEquals(ImmutableSet.of("shared.thrift", "tutorial.thrift"), names);
+    }
+
+    @Test
+    public void testReportFormats() throws Exception {
+        final BuildReport report = new BuildReport();
+        report.start(BuildReport.PHASE, "discovery").end();
+        report.start(BuildReport.INVOCATION, "svc/\"quoted\".thrift").end();
+        report.count("cacheHits", 1);
+        report.count("filesSkipped", 0);
+
+        final String summary = report.getSummary();
+        assertTrue(summary, summary.contains("discovery") && summary.contains("cacheHits 1"));
+        assertTrue("zero counters are not summarized", !summary.contains("filesSkipped"));
+
+        final File jsonFile = new File(testRootDir, "report.json");
+        report.writeJson(jsonFile);
+        final String json = Files.toString(jsonFile, Charsets.UTF_8);
+        assertTrue(json, json.contains("\"name\": \"svc/\\\"quoted\\\".thrift\""));
+        assertTrue(json, json.contains("\"filesSkipped\": 0"));
+
+        final File traceFile = new File(testRootDir, "trace.json");
+        report.writeTrace(traceFile);
+        final String trace = Files.toString(traceFile, Charsets.UTF_8);
+        assertTrue(trace, trace.startsWith("{\"traceEvents\": [") && trace.contains("\"ph\": \"X\""));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBuildState {
+
+    private File testRootDir;
+    private File idlDir;
+    private File sharedThrift;
+    private File tutorialThrift;
+    private File stateFile;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-build-state-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+
+        idlDir = new File(testRootDir, "idl");
+        FileUtils.copyDirectory(new File("src/test/resources/idl"), idlDir);
+        sharedThrift = new File(idlDir, "shared.thrift");
+        tutorialThrift = new File(idlDir, "tutorial.thrift");
+        stateFile = new File(testRootDir, "state.properties");
+    }
+
+    @Test
+    public void testIncludeClosure() throws Exception {
+        final ThriftIncludes includes = new ThriftIncludes(ImmutableList.of(idlDir));
+
+        assertEquals(ImmutableList.of("shared.thrift"), ThriftIncludes.parse(tutorialThrift));
+        assertEquals(ImmutableSet.of(ThriftIncludes.normalize(sharedThrift)), includes.getClosure(tutorialThrift));
+        assertTrue(includes.getClosure(sharedThrift).isEmpty());
+    }
+
+    @Test
+    public void testRecursiveRoots() throws Exception {
+        final ThriftIncludes includes = new ThriftIncludes(ImmutableList.of(idlDir));
+
+        assertEquals(ImmutableSet.of(ThriftIncludes.normalize(tutorialThrift)),
+                includes.getRecursiveRoots(ImmutableList.of(sharedThrift, tutorialThrift)));
+        // shared.thrift is not compiled, so tutorial.thrift cannot be compiled recursively
+        assertTrue(includes.getRecursiveRoots(ImmutableList.of(tutorialThrift)).isEmpty());
+    }
+
+    @Test
+    public void testUnchangedSourcesAreNotStale() throws Exception {
+        createState("0.9.1").write(stateFile);
+
+        // timestamps alone must not make a file stale
+        assertTrue(tutorialThrift.setLastModified(tutorialThrift.lastModified() + 60000));
+
+        final BuildState current = createState("0.9.1");
+        final BuildState previous = BuildState.read(stateFile);
+        assertTrue(current.isCompatibleWith(previous));
+        assertTrue(current.getStaleSources(previous).isEmpty());
+    }
+
+    @Test
+    public void testIncludersOfChangedFileAreStale() throws Exception {
+        createState("0.9.1").write(stateFile);
+
+        Files.append("\n// changed\n", sharedThrift, Charsets.UTF_8);
+
+        final BuildState current = createState("0.9.1");
+        assertEquals(ImmutableSet.of(ThriftIncludes.normalize(sharedThrift), ThriftIncludes.normalize(tutorialThrift)),
+                current.getStaleSources(BuildState.read(stateFile)));
+    }
+
+    @Test
+    public void testOnlyChangedFileIsStale() throws Exception {
+        createState("0.9.1").write(stateFile);
+
+        Files.append("\n// changed\n", tutorialThrift, Charsets.UTF_8);
+
+        final BuildState current = createState("0.9.1");
+        assertEquals(ImmutableSet.of(ThriftIncludes.normalize(tutorialThrift)),
+                current.getStaleSources(BuildState.read(stateFile)));
+    }
+
+    @Test
+    public void testCompilerChangeIsIncompatible() throws Exception {
+        createState("0.9.1").write(stateFile);
+
+        assertFalse(createState("0.9.2").isCompatibleWith(BuildState.read(stateFile)));
+        assertNull(BuildState.read(new File(testRootDir, "missing.properties")));
+    }
+
+    @Test
+    public void testRelativePathsOfSeveralSourceRoots() throws Exception {
+        final File otherDir = new File(testRootDir, "other");
+        assertTrue(otherDir.mkdir());
+        final File otherShared = new File(otherDir, "shared.thrift");
+        Files.copy(sharedThrift, otherShared);
+        final ImmutableList<File> sourceRoots = ImmutableList.of(idlDir, otherDir);
+
+        assertEquals("shared.thrift", BuildState.getRelativePath(sharedThrift, ImmutableList.of(idlDir)));
+        assertEquals("0/shared.thrift", BuildState.getRelativePath(sharedThrift, sourceRoots));
+        assertEquals("1/shared.thrift", BuildState.getRelativePath(otherShared, sourceRoots));
+        assertEquals(1, BuildState.getSourceRootIndex(otherShared, sourceRoots));
+        assertEquals(ThriftIncludes.normalize(otherShared),
+                ThriftIncludes.normalize(BuildState.resolve("1/shared.thrift", sourceRoots)));
+    }
+
+    private BuildState createState(String compilerVersion) throws Exception {
+        final ImmutableList<File> thriftPath = ImmutableList.of(idlDir);
+        return BuildState.create("java", compilerVersion, thriftPath,
+                ImmutableList.of(sharedThrift, tutorialThrift), new ThriftIncludes(thriftPath));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
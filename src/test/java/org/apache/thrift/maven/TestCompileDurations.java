@@ -0,0 +1,107 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCompileDurations {
+
+    private File testRootDir;
+    private File small;
+    private File medium;
+    private File large;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-compile-durations-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+
+        small = write("small.thrift", 10);
+        medium = write("medium.thrift", 100);
+        large = write("large.thrift", 1000);
+    }
+
+    @Test
+    public void testWithoutHistoryLargestFilesStartFirst() throws Exception {
+        final CompileDurations durations = CompileDurations.read(new File(testRootDir, "missing.durations"));
+
+        assertEquals(ImmutableList.of(large, medium, small), durations.sortLongestFirst(ImmutableMap.of(
+                small, "small.thrift", medium, "medium.thrift", large, "large.thrift")));
+    }
+
+    @Test
+    public void testRecordedDurationsOrderFilesAndEstimateNewOnes() throws Exception {
+        final File file = new File(testRootDir, "state/compile.durations");
+        final CompileDurations recorded = CompileDurations.read(file);
+        // the small file declares a huge service, the medium one holds a few constants
+        recorded.record("small.thrift", 40000, 10);
+        recorded.record("medium.thrift", 20, 100);
+        recorded.write(file);
+
+        final CompileDurations durations = CompileDurations.read(file);
+        assertEquals(40000, durations.getMillis("small.thrift"));
+        assertEquals(-1, durations.getMillis("large.thrift"));
+        // the large file is estimated at the average rate, 1000 * 40020 / 110 ms
+        assertEquals(ImmutableList.of(large, small, medium), durations.sortLongestFirst(ImmutableMap.of(
+                medium, "medium.thrift", small, "small.thrift", large, "large.thrift")));
+    }
+
+    @Test
+    public void testMalformedEntriesAreIgnored() throws Exception {
+        final File file = new File(testRootDir, "compile.durations");
+        Files.write("small.thrift=12,10\nmedium.thrift=oops\nlarge.thrift=\n", file, Charsets.ISO_8859_1);
+
+        final CompileDurations durations = CompileDurations.read(file);
+        assertEquals(12, durations.getMillis("small.thrift"));
+        assertEquals(-1, durations.getMillis("medium.thrift"));
+        assertEquals(-1, durations.getMillis("large.thrift"));
+    }
+
+    private File write(String name, int size) throws Exception {
+        final File file = new File(testRootDir, name);
+        Files.write(new byte[size], file);
+        return file;
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.apache.thrift.maven.MojoFixtures.writeJar;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestDependencyExtractor {
+
+    private File testRootDir;
+    private File extractionDir;
+    private File jar;
+    private File target;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-dependency-extractor-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+        extractionDir = new File(testRootDir, "thrift-dependencies");
+        jar = writeJar(new File(testRootDir, "idl.jar"),
+                "shared.thrift", "struct SharedStruct {}",
+                "idl/tutorial.thrift", "struct Work {}");
+        target = new File(extractionDir, "idl");
+    }
+
+    @Test
+    public void testUnchangedJarIsNotScanned() throws Exception {
+        assertEquals(ImmutableSet.of("shared.thrift", "idl/tutorial.thrift"), extractAll(jar, target));
+
+        final DependencyExtractor extractor = DependencyExtractor.open(extractionDir);
+        try {
+            extractor.scan(ImmutableList.of(jar), 1);
+            assertEquals(ImmutableSet.of("shared.thrift", "idl/tutorial.thrift"), extractor.extractAll(jar, target));
+            extractor.finish();
+            assertEquals("unchanged jar was scanned", 0, extractor.getScannedJars());
+            assertEquals(0, extractor.getExtractedFiles());
+        } finally {
+            extractor.close();
+        }
+        assertEquals("struct Work {}", FileUtils.fileRead(new File(target, "idl/tutorial.thrift"), "UTF-8"));
+    }
+
+    @Test
+    public void testEntriesWithUnchangedCrcAreReused() throws Exception {
+        extractAll(jar, target);
+        final File shared = new File(target, "shared.thrift");
+        assertTrue(shared.setLastModified(shared.lastModified() - 60000));
+        final long lastModified = shared.lastModified();
+
+        writeJar(jar, "shared.thrift", "struct SharedStruct {}", "idl/tutorial.thrift", "struct ChangedWork {}");
+        assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+        final DependencyExtractor extractor = DependencyExtractor.open(extractionDir);
+        try {
+            extractor.scan(ImmutableList.of(jar), 1);
+            extractor.extractAll(jar, target);
+            extractor.finish();
+            assertEquals(1, extractor.getScannedJars());
+            assertEquals("only the changed entry is extracted", 1, extractor.getExtractedFiles());
+        } finally {
+            extractor.close();
+        }
+        assertEquals("unchanged entry was rewritten", lastModified, shared.lastModified());
+        assertEquals("struct ChangedWork {}", FileUtils.fileRead(new File(target, "idl/tutorial.thrift"), "UTF-8"));
+    }
+
+    @Test
+    public void testVanishedEntriesAndJarsAreDeleted() throws Exception {
+        final File otherJar = writeJar(new File(testRootDir, "other.jar"), "other/other.thrift", "struct Other {}");
+        final File otherTarget = new File(extractionDir, "other");
+        final DependencyExtractor first = DependencyExtractor.open(extractionDir);
+        try {
+            first.extractAll(jar, target);
+            first.extractAll(otherJar, otherTarget);
+            first.finish();
+        } finally {
+            first.close();
+        }
+        assertTrue(new File(otherTarget, "other/other.thrift").isFile());
+
+        writeJar(jar, "shared.thrift", "struct SharedStruct {}");
+        assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+        assertEquals(ImmutableSet.of("shared.thrift"), extractAll(jar, target));
+
+        assertTrue(new File(target, "shared.thrift").isFile());
+        assertFalse("vanished entry was kept", new File(target, "idl").exists());
+        assertFalse("files of a vanished jar were kept", new File(otherTarget, "other").exists());
+    }
+
+    @Test
+    public void testDirectoryWithoutIndexIsCleaned() throws Exception {
+        final File stale = new File(extractionDir, "stale/stale.thrift");
+        stale.getParentFile().mkdirs();
+        FileUtils.fileWrite(stale.getPath(), "UTF-8", "struct Stale {}");
+
+        extractAll(jar, target);
+
+        assertFalse("file of an unknown build was kept", stale.exists());
+        assertTrue(new File(target, "shared.thrift").isFile());
+    }
+
+    @Test
+    public void testEntryMissingFromReplacedJarFails() throws Exception {
+        final JarScanner.Entry tutorial = new JarScanner(".thrift").scan(jar).get("idl/tutorial.thrift");
+        writeJar(jar, "shared.thrift", "struct SharedStruct {}");
+
+        final DependencyExtractor extractor = DependencyExtractor.open(extractionDir);
+        try {
+            extractor.extract(jar, tutorial, target);
+            fail("missing entry was extracted");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("idl/tutorial.thrift"));
+        } finally {
+            extractor.close();
+        }
+    }
+
+    /**
+     * Extracts a jar the way a build does, with a new extractor.
+     */
+    private ImmutableSet<String> extractAll(File jarFile, File targetDir) throws Exception {
+        final DependencyExtractor extractor = DependencyExtractor.open(extractionDir);
+        try {
+            extractor.scan(ImmutableList.of(jarFile), 1);
+            final ImmutableSet<String> entries = extractor.extractAll(jarFile, targetDir);
+            extractor.finish();
+            return entries;
+        } finally {
+            extractor.close();
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.apache.thrift.maven.MojoFixtures.writeJar;
+import static org.apache.thrift.maven.MojoFixtures.writeThriftFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDependencyIndex {
+
+    private File testRootDir;
+    private File jar;
+    private File classesDir;
+    private File indexFile;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-dependency-index-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+
+        // both provide common.thrift, the jar below the idl root and the directory at its top
+        jar = writeJar(new File(testRootDir, "idl.jar"),
+                "idl/common.thrift", "struct FromJar {}",
+                "idl/jar-only.thrift", "include \"common.thrift\"",
+                "com/example/Type.class", "");
+        // a fresh location for every test, as listings are shared by the whole JVM
+        classesDir = new File(testRootDir, "classes-" + System.nanoTime());
+        writeThriftFile(new File(classesDir, "common.thrift"), "struct FromDirectory {}");
+        writeThriftFile(new File(classesDir, "nested/directory-only.thrift"), "struct Nested {}");
+        indexFile = new File(testRootDir, "thrift-dependencies/.directories");
+    }
+
+    @Test
+    public void testIncludesResolveInClasspathOrder() throws Exception {
+        final DependencyIndex jarFirst = create(jar, classesDir);
+        final DependencyIndex.Location fromJar = jarFirst.find("common.thrift");
+        assertEquals(jar, fromJar.getClasspathElement());
+        assertEquals("idl", fromJar.getRoot());
+        assertEquals("idl/common.thrift", fromJar.getEntry());
+
+        final DependencyIndex directoryFirst = create(classesDir, jar);
+        final DependencyIndex.Location fromDirectory = directoryFirst.find("common.thrift");
+        assertEquals(classesDir, fromDirectory.getClasspathElement());
+        assertEquals("", fromDirectory.getRoot());
+        assertEquals("common.thrift", fromDirectory.getEntry());
+    }
+
+    @Test
+    public void testIncludeRootsFollowTheEntries() throws Exception {
+        final DependencyIndex index = create(classesDir, jar);
+
+        assertEquals(ImmutableList.of(classesDir, jar), index.getClasspathElements());
+        assertEquals(ImmutableSet.of("idl/common.thrift", "idl/jar-only.thrift"), index.getEntries(jar));
+        assertEquals(ImmutableSet.of("idl"), index.getRoots(jar));
+        assertEquals(ImmutableSet.of("", "nested"), index.getRoots(classesDir));
+        assertEquals("nested", index.find("directory-only.thrift").getRoot());
+        assertEquals(1, index.getScannedJars());
+    }
+
+    @Test
+    public void testSiblingsResolveWithinTheClasspathElement() throws Exception {
+        final DependencyIndex index = create(classesDir, jar);
+        final DependencyIndex.Location includer = index.find("jar-only.thrift");
+
+        // next to the including file, the directory's common.thrift does not shadow the jar's
+        final DependencyIndex.Location sibling = index.findSibling(includer, "common.thrift");
+        assertEquals(jar, sibling.getClasspathElement());
+        assertEquals("idl/common.thrift", sibling.getEntry());
+        assertNull("a sibling needs no include root", sibling.getRoot());
+        assertNull(index.findSibling(includer, "directory-only.thrift"));
+    }
+
+    @Test
+    public void testElementsWithoutThriftFilesAreNotIndexed() throws Exception {
+        final File classesOnlyJar = writeJar(new File(testRootDir, "classes.jar"), "com/example/Other.class", "");
+        final File pom = new File(testRootDir, "idl.pom.xml");
+        FileUtils.fileWrite(pom.getPath(), "UTF-8", "<project/>");
+
+        final DependencyIndex index = create(classesOnlyJar, pom, new File(testRootDir, "missing"), jar);
+        assertEquals(ImmutableList.of(jar), index.getClasspathElements());
+        assertEquals(ImmutableSet.<String>of(), index.getRoots(classesOnlyJar));
+        assertNull(index.find("missing.thrift"));
+    }
+
+    private DependencyIndex create(File... classpathElements) throws Exception {
+        return DependencyIndex.create(ImmutableList.copyOf(classpathElements), 2, DirectoryIndex.open(indexFile));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
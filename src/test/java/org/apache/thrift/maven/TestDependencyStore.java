@@ -0,0 +1,169 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestDependencyStore {
+
+    private File testRootDir;
+    private File storeDir;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-dependency-store-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+        assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        storeDir = new File(testRootDir, "store");
+    }
+
+    @Test
+    public void testExtractedFilesAreReadOnly() throws Exception {
+        final DependencyStore store = new DependencyStore(storeDir, 1024 * 1024);
+        final DependencyStore.Extraction extraction =
+                store.extract(createJar("shared.jar", "struct SharedStruct {}"), "com/example/shared/1.0");
+
+        assertEquals(ImmutableSet.of("shared.thrift"), extraction.getEntries());
+        final File sharedThrift = new File(extraction.getDirectory(), "shared.thrift");
+        assertEquals("struct SharedStruct {}", FileUtils.fileRead(sharedThrift, "UTF-8"));
+        // checked on the permissions, since the file remains writable for root
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        assertFalse("extracted file is writable", Files.getPosixFilePermissions(sharedThrift.toPath())
+                .contains(PosixFilePermission.OWNER_WRITE));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedArtifactIsEvicted() throws Exception {
+        final String content = "struct SharedStruct {}";
+        // only the blob of one artifact fits
+        final DependencyStore store = new DependencyStore(storeDir, content.length() + 10);
+        final File first = store.extract(createJar("first.jar", content), "com/example/first/1.0").getDirectory();
+        assertTrue(new File(first, ".complete").setLastModified(System.currentTimeMillis() - 60000));
+
+        final File second = store.extract(createJar("second.jar", "struct OtherStruct {}"), "com/example/second/1.0")
+                .getDirectory();
+
+        assertFalse("least recently used artifact was kept", first.exists());
+        assertTrue(new File(second, "shared.thrift").isFile());
+        final File blobs = new File(storeDir, "blobs");
+        int blobCount = 0;
+        for (File prefix : blobs.listFiles()) {
+            blobCount += prefix.list().length;
+        }
+        assertEquals("unreferenced blob was kept", 1, blobCount);
+    }
+
+    @Test
+    public void testIdenticalFilesAreStoredOnce() throws Exception {
+        final String content = "struct SharedStruct {}";
+        // both artifact directories are larger than the store, but they link to the same blob
+        final DependencyStore store = new DependencyStore(storeDir, content.length() + 10);
+        final File first = store.extract(createJar("first.jar", content), "com/example/shared/1.0").getDirectory();
+        final File second = store.extract(createJar("second.jar", content), "com/example/shared/1.1").getDirectory();
+
+        assertTrue("artifact sharing its blob was evicted", new File(first, ".complete").isFile());
+        assertEquals(content, FileUtils.fileRead(new File(second, "shared.thrift"), "UTF-8"));
+    }
+
+    @Test
+    public void testEntriesOutsideTheJarAreRejected() throws Exception {
+        final DependencyStore store = new DependencyStore(storeDir, 1024 * 1024);
+        final File jar = createJar("evil.jar", "../../escaped.thrift", "struct Escaped {}");
+        try {
+            store.extract(jar, "com/example/evil/1.0");
+            fail("entry outside of the jar was extracted");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("../../escaped.thrift"));
+        }
+        assertFalse(new File(storeDir, "artifacts/com/example/escaped.thrift").exists());
+        assertFalse(new File(storeDir, "artifacts/com/example/evil/1.0").exists());
+    }
+
+    @Test
+    public void testChecksumOfUnchangedJarIsReused() throws Exception {
+        final File jar = createJar("shared.jar", "struct SharedStruct {}");
+        final File directory = new DependencyStore(storeDir, 1024 * 1024).extract(jar, "com/example/shared/1.0")
+                .getDirectory();
+        final File[] records = new File(storeDir, "checksums").listFiles();
+        assertEquals(1, records.length);
+        assertEquals(BuildState.sha1(jar), directory.getName());
+        assertEquals(directory.getName(), FileUtils.fileRead(records[0], "UTF-8"));
+
+        // a new JVM trusts the record rather than hashing the jar again; the record tells them apart
+        final String recorded = "0123456789abcdef0123456789abcdef01234567";
+        FileUtils.fileWrite(records[0].getPath(), "UTF-8", recorded);
+        assertTrue(jar.setLastModified(jar.lastModified() - 1000));
+        final File changed = new DependencyStore(storeDir, 1024 * 1024).extract(jar, "com/example/shared/1.0")
+                .getDirectory();
+        assertEquals("a changed jar must be hashed again", directory.getName(), changed.getName());
+        assertTrue(jar.setLastModified(jar.lastModified() + 1000));
+        FileUtils.forceDelete(new File(storeDir, "artifacts"));
+        final File reused = new DependencyStore(storeDir, 1024 * 1024).extract(jar, "com/example/shared/1.0")
+                .getDirectory();
+        assertEquals(recorded, reused.getName());
+    }
+
+    private File createJar(String name, String content) throws Exception {
+        return createJar(name, "shared.thrift", content);
+    }
+
+    private File createJar(String name, String entry, String content) throws Exception {
+        final File jar = new File(testRootDir, name);
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new ZipEntry(entry));
+            out.write(content.getBytes(Charsets.UTF_8));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir != null && testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
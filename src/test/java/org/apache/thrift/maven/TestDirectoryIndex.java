@@ -0,0 +1,130 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestDirectoryIndex {
+
+    private File testRootDir;
+    private File classesDir;
+    private File indexFile;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-directory-index-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+
+        // a fresh location for every test, as listings are shared by the whole JVM
+        classesDir = new File(testRootDir, "classes-" + System.nanoTime());
+        indexFile = new File(testRootDir, "thrift-dependencies/.directories");
+        write("shared.thrift");
+        write("com/example/tutorial.thrift");
+        write("com/example/Tutorial.class");
+        write("com/example/internal/Internal.class");
+        age(classesDir);
+    }
+
+    @Test
+    public void testNestedThriftFilesAreFound() throws Exception {
+        final DirectoryIndex index = DirectoryIndex.open(indexFile);
+
+        assertEquals(ImmutableSet.of("com/example/tutorial.thrift", "shared.thrift"),
+                index.getThriftFiles(classesDir));
+        assertEquals(4, index.getListedDirectories());
+    }
+
+    @Test
+    public void testOnlyChangedDirectoriesAreListedAgain() throws Exception {
+        final DirectoryIndex first = DirectoryIndex.open(indexFile);
+        first.getThriftFiles(classesDir);
+        first.write();
+        assertTrue("index was not written", indexFile.isFile());
+
+        final DirectoryIndex unchanged = DirectoryIndex.open(indexFile);
+        assertEquals(ImmutableSet.of("com/example/tutorial.thrift", "shared.thrift"),
+                unchanged.getThriftFiles(classesDir));
+        assertEquals(0, unchanged.getListedDirectories());
+
+        final File internal = new File(classesDir, "com/example/internal");
+        write("com/example/internal/internal.thrift");
+        assertTrue(internal.setLastModified(internal.lastModified() - 30000));
+        final DirectoryIndex changed = DirectoryIndex.open(indexFile);
+        assertEquals(ImmutableSet.of("com/example/internal/internal.thrift", "com/example/tutorial.thrift",
+                "shared.thrift"), changed.getThriftFiles(classesDir));
+        assertEquals(1, changed.getListedDirectories());
+    }
+
+    @Test
+    public void testRecentlyModifiedDirectoriesAreListedAgain() throws Exception {
+        final File example = new File(classesDir, "com/example");
+        assertTrue(example.setLastModified(System.currentTimeMillis()));
+        DirectoryIndex.open(indexFile).getThriftFiles(classesDir);
+
+        final DirectoryIndex index = DirectoryIndex.open(indexFile);
+        index.getThriftFiles(classesDir);
+        assertEquals(1, index.getListedDirectories());
+    }
+
+    private void write(String path) throws Exception {
+        final File file = new File(classesDir, path);
+        Files.createParentDirs(file);
+        Files.write(path, file, Charsets.UTF_8);
+    }
+
+    /**
+     * Moves the modification time of a tree into the past, so that its listings are reused.
+     */
+    private static void age(File directory) {
+        final File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    age(child);
+                }
+            }
+        }
+        assertTrue(directory.setLastModified(System.currentTimeMillis() - 60000));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
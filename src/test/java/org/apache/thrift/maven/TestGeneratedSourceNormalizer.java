@@ -0,0 +1,83 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestGeneratedSourceNormalizer {
+
+    private File testRootDir;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-normalizer-test");
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+    }
+
+    @Test
+    public void testOutputTimestamps() throws Exception {
+        assertEquals("1970-01-01", GeneratedSourceNormalizer.forOutputTimestamp(null).getDate());
+        assertEquals("1970-01-01", GeneratedSourceNormalizer.forOutputTimestamp("a").getDate());
+        assertEquals("2023-11-14", GeneratedSourceNormalizer.forOutputTimestamp("1700000000").getDate());
+        assertEquals("2024-01-01", GeneratedSourceNormalizer.forOutputTimestamp("2024-01-01").getDate());
+        assertEquals("2023-12-31", GeneratedSourceNormalizer.forOutputTimestamp("2024-01-01T01:00:00+02:00").getDate());
+    }
+
+    @Test
+    public void testGeneratedDatesAndLineSeparatorsAreNormalized() throws Exception {
+        final GeneratedSourceNormalizer normalizer = new GeneratedSourceNormalizer("2024-01-01");
+        final File generated = new File(testRootDir, "shared/SharedStruct.java");
+        assertTrue(generated.getParentFile().mkdirs());
+        Files.write("package shared;\r\n"
+                + "@Generated(value = \"Autogenerated by Thrift Compiler (0.9.3)\", date = \"2016-05-17\")\r\n"
+                + "public class SharedStruct {}", generated, Charsets.UTF_8);
+
+        normalizer.normalizeTree(testRootDir);
+        assertEquals("package shared;\n"
+                + "@Generated(value = \"Autogenerated by Thrift Compiler (0.9.3)\", date = \"2024-01-01\")\n"
+                + "public class SharedStruct {}", Files.toString(generated, Charsets.UTF_8));
+
+        assertFalse("normalized file was rewritten", normalizer.normalize(generated));
+        assertEquals(1, generated.getParentFile().list().length);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
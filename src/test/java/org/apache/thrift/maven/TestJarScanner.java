@@ -0,0 +1,149 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestJarScanner {
+
+    private File testRootDir;
+    private JarScanner scanner;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-jar-scanner-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+        scanner = new JarScanner(".thrift");
+    }
+
+    @Test
+    public void testScanMatchesJarFile() throws Exception {
+        final File jar = createJar("idl.jar", "archive comment");
+
+        final ImmutableMap<String, JarScanner.Entry> entries = scanner.scan(jar);
+        assertEquals(ImmutableSet.of("shared.thrift", "idl/tutorial.thrift", "idl/stored.thrift"), entries.keySet());
+
+        final JarFile jarFile = new JarFile(jar);
+        try {
+            final Enumeration<JarEntry> jarEntries = jarFile.entries();
+            while (jarEntries.hasMoreElements()) {
+                final JarEntry jarEntry = jarEntries.nextElement();
+                if (jarEntry.getName().endsWith(".thrift")) {
+                    assertEquals(jarEntry.getCrc(), entries.get(jarEntry.getName()).getCrc());
+                    assertEquals(jarEntry.getSize(), entries.get(jarEntry.getName()).getSize());
+                }
+            }
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    @Test
+    public void testParallelScan() throws Exception {
+        final File first = createJar("first.jar", null);
+        final File second = createJar("second.jar", null);
+        final File empty = new File(testRootDir, "empty.jar");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(empty));
+        out.putNextEntry(new ZipEntry("Foo.class"));
+        out.close();
+
+        final ImmutableMap<File, ImmutableMap<String, JarScanner.Entry>> result =
+                scanner.scan(ImmutableList.of(first, second, empty), 3);
+        assertEquals(ImmutableList.of(first, second, empty), result.keySet().asList());
+        assertEquals(3, result.get(second).size());
+        assertTrue(result.get(empty).isEmpty());
+    }
+
+    @Test
+    public void testUnreadableArtifact() throws Exception {
+        final File notAJar = new File(testRootDir, "broken.jar");
+        FileUtils.fileWrite(notAJar.getPath(), "not a jar");
+        try {
+            scanner.scan(notAJar);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private File createJar(String name, String comment) throws IOException {
+        final File jar = new File(testRootDir, name);
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            addEntry(out, "shared.thrift", "namespace java shared");
+            addEntry(out, "idl/tutorial.thrift", "include \"shared.thrift\"");
+            addEntry(out, "org/example/Foo.class", "class");
+
+            final byte[] stored = "struct Stored {}".getBytes("UTF-8");
+            final CRC32 crc = new CRC32();
+            crc.update(stored);
+            final ZipEntry storedEntry = new ZipEntry("idl/stored.thrift");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+
+            if (comment != null) {
+                out.setComment(comment);
+            }
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+
+    private static void addEntry(JarOutputStream out, String name, String content) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(content.getBytes("UTF-8"));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPrecompiledClasses {
+
+    private static final ImmutableList<String> OPTIONS = ImmutableList.of("-proc:none", "-nowarn");
+
+    private File testRootDir;
+    private File cacheDir;
+    private File sourceDir;
+    private File classesDir;
+    private ImmutableList<File> sources;
+
+    @Before
+    public void setup() throws Exception {
+        Assume.assumeTrue(PrecompiledClasses.isAvailable());
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-precompiled-classes-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+
+        cacheDir = new File(testRootDir, "cache");
+        sourceDir = new File(testRootDir, "generated");
+        classesDir = new File(testRootDir, "classes");
+        final File service = new File(sourceDir, "shared/SharedService.java");
+        final File struct = new File(sourceDir, "shared/SharedStruct.java");
+        Files.createParentDirs(service);
+        Files.write("package shared; public class SharedService { SharedStruct struct; }", service, Charsets.UTF_8);
+        Files.write("package shared; public class SharedStruct {}", struct, Charsets.UTF_8);
+        sources = ImmutableList.of(service, struct);
+    }
+
+    @Test
+    public void testCompileAndExtract() throws Exception {
+        final PrecompiledClasses cache = new PrecompiledClasses(cacheDir, 1024 * 1024);
+        final String key = PrecompiledClasses.getFingerprint(sourceDir, sources, ImmutableList.<File>of(), OPTIONS,
+                "1.0");
+        assertNull(cache.get(key));
+
+        final File jar = cache.compile(key, sources, ImmutableList.<File>of(), OPTIONS,
+                new DiagnosticCollector<JavaFileObject>());
+        assertNotNull("javac failed", jar);
+        assertEquals(jar, cache.get(key));
+        assertEquals("only the jar is kept", 1, cacheDir.list().length);
+
+        final ImmutableSet<String> extracted = PrecompiledClasses.extract(jar, classesDir,
+                ImmutableSet.of("shared/Removed.class"));
+        assertEquals(ImmutableSet.of("shared/SharedService.class", "shared/SharedStruct.class"), extracted);
+        final File serviceClass = new File(classesDir, "shared/SharedService.class");
+        assertTrue(serviceClass.isFile());
+
+        // unchanged classes are not rewritten, and classes that are no longer generated are deleted
+        assertTrue(serviceClass.setLastModified(serviceClass.lastModified() - 60000));
+        final long lastModified = serviceClass.lastModified();
+        final File removedClass = new File(classesDir, "shared/Removed.class");
+        Files.write(new byte[0], removedClass);
+        PrecompiledClasses.extract(jar, classesDir, ImmutableSet.of("shared/Removed.class"));
+        assertEquals("unchanged class was rewritten", lastModified, serviceClass.lastModified());
+        assertFalse("stale class was kept", removedClass.exists());
+        assertEquals(extracted, PrecompiledClasses.list(jar));
+
+        // missing classes are extracted again, and directories left empty are deleted
+        assertTrue(serviceClass.delete());
+        final File removedPackage = new File(classesDir, "removed");
+        Files.createParentDirs(new File(removedPackage, "Removed.class"));
+        Files.write(new byte[0], new File(removedPackage, "Removed.class"));
+        PrecompiledClasses.extract(jar, classesDir, ImmutableSet.of("removed/Removed.class"));
+        assertTrue("missing class was not extracted", serviceClass.isFile());
+        assertFalse("empty directory was kept", removedPackage.exists());
+        assertTrue(classesDir.isDirectory());
+    }
+
+    @Test
+    public void testFingerprintCoversSourcesAndOptions() throws Exception {
+        final List<File> classpath = ImmutableList.of(classesDir);
+        final String key = PrecompiledClasses.getFingerprint(sourceDir, sources, classpath, OPTIONS, "1.0");
+        assertEquals(key, PrecompiledClasses.getFingerprint(sourceDir, sources, classpath, OPTIONS, "1.0"));
+        assertFalse(key.equals(PrecompiledClasses.getFingerprint(sourceDir, sources, classpath,
+                ImmutableList.of("-g"), "1.0")));
+
+        Files.append(" ", sources.get(1), Charsets.UTF_8);
+        assertFalse(key.equals(PrecompiledClasses.getFingerprint(sourceDir, sources, classpath, OPTIONS, "1.0")));
+    }
+
+    @Test
+    public void testFingerprintCoversTheContentOfClassesDirectories() throws Exception {
+        final File classFile = new File(classesDir, "shared/Base.class");
+        Files.createParentDirs(classFile);
+        Files.write("base", classFile, Charsets.UTF_8);
+        final List<File> classpath = ImmutableList.of(classesDir);
+        final String key = PrecompiledClasses.getFingerprint(sourceDir, sources, classpath, OPTIONS, "1.0");
+
+        // a rebuild of the directory that produced identical classes
+        assertTrue(classFile.setLastModified(classFile.lastModified() + 60000));
+        assertEquals(key, PrecompiledClasses.getFingerprint(sourceDir, sources, classpath, OPTIONS, "1.0"));
+
+        Files.write("changed", classFile, Charsets.UTF_8);
+        assertTrue(classFile.setLastModified(classFile.lastModified() - 60000));
+        assertFalse(key.equals(PrecompiledClasses.getFingerprint(sourceDir, sources, classpath, OPTIONS, "1.0")));
+    }
+
+    @Test
+    public void testStoredJarIsKeptWhenLargerThanTheCache() throws Exception {
+        final PrecompiledClasses cache = new PrecompiledClasses(cacheDir, 1);
+        final File jar = cache.compile("key", sources, ImmutableList.<File>of(), OPTIONS,
+                new DiagnosticCollector<JavaFileObject>());
+
+        assertNotNull("javac failed", jar);
+        assertTrue("the jar about to be extracted was evicted", jar.isFile());
+        assertEquals(2, PrecompiledClasses.extract(jar, classesDir, ImmutableSet.<String>of()).size());
+
+        final File other = cache.compile("other", sources, ImmutableList.<File>of(), OPTIONS,
+                new DiagnosticCollector<JavaFileObject>());
+        assertTrue(other.isFile());
+        assertFalse("the least recently used jar was kept", jar.exists());
+    }
+
+    @Test
+    public void testFailedCompileIsNotCached() throws Exception {
+        Files.write("package shared; public class SharedStruct { Missing missing; }", sources.get(1),
+                Charsets.UTF_8);
+        final PrecompiledClasses cache = new PrecompiledClasses(cacheDir, 1024 * 1024);
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+
+        assertNull(cache.compile("key", sources, ImmutableList.<File>of(), OPTIONS, diagnostics));
+        assertEquals(Diagnostic.Kind.ERROR, diagnostics.getDiagnostics().get(0).getKind());
+        assertNull(cache.get("key"));
+        assertEquals("temporary files were not removed", 0, cacheDir.list().length);
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir != null && testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSourceScanner {
+
+    private File testRootDir;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-source-scanner-test");
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+        for (String path : ImmutableList.of("a.thrift", "b.txt", "svc/user.thrift", "svc/user-test.thrift",
+                "svc/internal/secret.thrift", "internal/x.thrift", ".svn/entries.thrift", "deep/er/still/z.thrift")) {
+            final File file = new File(testRootDir, path);
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite(file.getPath(), "UTF-8", path);
+        }
+    }
+
+    @Test
+    public void testMatchesFileUtils() throws Exception {
+        assertSameFiles(ImmutableList.of("**/*.thrift"), ImmutableList.<String>of());
+        assertSameFiles(ImmutableList.of("**/*.thrift"), ImmutableList.of("**/internal/**", "**/*-test.thrift"));
+        assertSameFiles(ImmutableList.of("svc/", "*.txt"), ImmutableList.of("svc/internal/"));
+        assertSameFiles(ImmutableList.<String>of(), ImmutableList.of("deep/**"));
+        assertSameFiles(ImmutableList.of("**/*.thrift,**/*.txt"), ImmutableList.of("internal/**"));
+    }
+
+    @Test
+    public void testPatternsAreKeptAsGiven() throws Exception {
+        final SourceScanner scanner =
+                new SourceScanner(ImmutableList.of("**/*.thrift, **/*.txt"), ImmutableList.of("internal/** "));
+        final ImmutableSet<File> files = scanner.scan(testRootDir).getFiles();
+
+        assertFalse("pattern was trimmed", files.contains(new File(testRootDir, "b.txt")));
+        assertTrue("pattern was trimmed", files.contains(new File(testRootDir, "internal/x.thrift")));
+    }
+
+    @Test
+    public void testLastModified() throws Exception {
+        final File newest = new File(testRootDir, "svc/user.thrift");
+        assertTrue(newest.setLastModified(System.currentTimeMillis() + 60000));
+        final SourceScanner.Result result =
+                new SourceScanner(ImmutableList.of("**/*.thrift"), ImmutableList.<String>of()).scan(testRootDir);
+        assertEquals(newest.lastModified(), result.getLastModified());
+        assertEquals(0, new SourceScanner(ImmutableList.of("**/*.java"), ImmutableList.<String>of())
+                .scan(testRootDir).getLastModified());
+    }
+
+    private void assertSameFiles(List<String> includes, List<String> excludes) throws Exception {
+        @SuppressWarnings("unchecked")
+        final List<File> expected = FileUtils.getFiles(testRootDir,
+                includes.isEmpty() ? null : Joiner.on(',').join(includes), Joiner.on(',').join(excludes));
+        final SourceScanner scanner = new SourceScanner(includes, excludes);
+        assertEquals(ImmutableSet.copyOf(expected), ImmutableSet.copyOf(scanner.scan(testRootDir).getFiles()));
+        assertEquals(ImmutableSet.copyOf(expected), ImmutableSet.copyOf(scanner.scan(testRootDir, 4).getFiles()));
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
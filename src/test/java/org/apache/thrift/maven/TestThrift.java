@@ -26,9 +26,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.List;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -115,6 +118,105 @@ public class TestThrift {
             new File(testRootDir, "tutorial/InvalidOperation.java").exists());
     }
 
+    @Test
+    public void testThriftParallelCompile() throws Exception {
+        final File sharedThrift = new File(idlDir, "shared.thrift");
+        final File tutorialThrift = new File(idlDir, "tutorial.thrift");
+
+        builder.addThriftFile(sharedThrift);
+        builder.addThriftFile(tutorialThrift);
+        builder.setThreads(2);
+
+        final Thrift thrift = builder.build();
+
+        // execute the compile
+        final int result = thrift.compile();
+        assertEquals(0, result);
+
+        assertTrue("generated java code doesn't exist",
+            new File(testRootDir, "shared/SharedService.java").exists());
+        assertTrue("generated java code doesn't exist",
+            new File(testRootDir, "tutorial/InvalidOperation.java").exists());
+        assertFalse("staging directory was not removed",
+            new File(testRootDir.getParentFile(), testRootDir.getName() + ".staging").exists());
+    }
+
+    @Test
+    public void testSharedCompilerPermits() throws Exception {
+        builder.addThriftFile(new File(idlDir, "shared.thrift"));
+        builder.addThriftFile(new File(idlDir, "tutorial.thrift"));
+        builder.setThreads(2);
+        final CompilerPermits permits = new CompilerPermits(1);
+        builder.setCompilerPermits(permits);
+
+        assertEquals(0, builder.build().compile());
+        assertTrue("generated java code doesn't exist",
+            new File(testRootDir, "tutorial/InvalidOperation.java").exists());
+        assertEquals("permit was not released", 0, permits.acquire());
+    }
+
+    @Test
+    public void testSharedCompilerPermitsPerSession() throws Exception {
+        final Object session = new Object();
+        final CompilerPermits permits = CompilerPermits.getShared(session, 3);
+        assertEquals(3, permits.getPermits());
+        assertSame("the first execution determines the limit", permits, CompilerPermits.getShared(session, 5));
+        assertEquals(5, CompilerPermits.getShared(new Object(), 5).getPermits());
+    }
+
+    @Test
+    public void testCompileDurationsAreRecorded() throws Exception {
+        builder.addThriftFile(new File(idlDir, "shared.thrift"));
+        builder.addThriftFile(new File(idlDir, "tutorial.thrift"));
+        builder.setThreads(2);
+        final CompileDurations durations = CompileDurations.read(new File(testRootDir, "missing.durations"));
+        builder.setCompileDurations(durations);
+
+        assertEquals(0, builder.build().compile());
+        assertTrue("duration was not recorded", durations.getMillis("shared.thrift") >= 0);
+        assertTrue("duration was not recorded", durations.getMillis("tutorial.thrift") >= 0);
+    }
+
+    @Test
+    public void testWriteIfChangedKeepsUnchangedFiles() throws Exception {
+        final File sharedThrift = new File(idlDir, "shared.thrift");
+        builder.addThriftFile(sharedThrift);
+        builder.setWriteIfChanged(true);
+
+        assertEquals(0, builder.build().compile());
+        final File generatedFile = new File(testRootDir, "shared/SharedService.java");
+        assertTrue("generated java code doesn't exist", generatedFile.exists());
+        assertTrue(generatedFile.setLastModified(generatedFile.lastModified() - 60000));
+        final long lastModified = generatedFile.lastModified();
+
+        final Thrift thrift = builder.build();
+        assertEquals(0, thrift.compile());
+        assertEquals("unchanged file was rewritten", lastModified, generatedFile.lastModified());
+        assertTrue("generated files were not recorded",
+            thrift.getGeneratedFiles().get(sharedThrift).contains("shared/SharedService.java"));
+    }
+
+    @Test
+    public void testBadParallelCompile() throws Exception {
+        final File thriftFile = new File(testRootDir, "missing.thrift");
+        builder.addThriftPathElement(testRootDir);
+
+        // Hacking around checks in addThrift file.
+        assertTrue(thriftFile.createNewFile());
+        builder.addThriftFile(thriftFile);
+        assertTrue(thriftFile.delete());
+        builder.addThriftFile(new File(idlDir, "shared.thrift"));
+        builder.setThreads(2);
+
+        final Thrift thrift = builder.build();
+
+        // execute the compile
+        final int result = thrift.compile();
+        assertEquals(1, result);
+        assertFalse("generated java code should not be moved into place",
+            new File(testRootDir, "shared/SharedService.java").exists());
+    }
+
     @Test
     public void testBadCompile() throws Exception {
         final File thriftFile = new File(testRootDir, "missing.thrift");
@@ -135,6 +237,33 @@ public class TestThrift {
         assertEquals(1, result);
     }
 
+    @Test
+    public void testOutputIsStreamedAndKeptOnFailure() throws Exception {
+        final File thriftFile = new File(testRootDir, "missing.thrift");
+        builder.addThriftPathElement(testRootDir);
+
+        // Hacking around checks in addThrift file.
+        assertTrue(thriftFile.createNewFile());
+        builder.addThriftFile(thriftFile);
+        assertTrue(thriftFile.delete());
+
+        final List<String> errorLines = newArrayList();
+        builder.setOutputListener(new Thrift.OutputListener() {
+            public void output(File file, String line) {
+            }
+
+            public void error(File file, String line) {
+                assertEquals(thriftFile, file);
+                errorLines.add(line);
+            }
+        });
+        final Thrift thrift = builder.build();
+
+        assertEquals(1, thrift.compile());
+        assertFalse("error output was not streamed", errorLines.isEmpty());
+        assertTrue("error output was not kept", thrift.getError().contains(errorLines.get(0)));
+    }
+
     @Test
     public void testFileInPathPreCondition() throws Exception {
         final File thriftFile = new File(testRootDir, "missing.thrift");
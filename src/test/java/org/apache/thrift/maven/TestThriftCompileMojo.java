@@ -0,0 +1,282 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.maven.model.Resource;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.Scanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import java.io.File;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.apache.thrift.maven.MojoFixtures.createMojo;
+import static org.apache.thrift.maven.MojoFixtures.writeJar;
+import static org.apache.thrift.maven.MojoFixtures.writeThriftFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestThriftCompileMojo {
+
+    private File testRootDir;
+    private File sourceDir;
+    private ThriftCompileMojo mojo;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-compile-mojo-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+        sourceDir = new File(testRootDir, "src/main/thrift");
+        mojo = createMojo(new ThriftCompileMojo(), testRootDir);
+    }
+
+    @Test
+    public void testMinimalThriftPathFollowsTheClasspathOrder() throws Exception {
+        // a fresh location for every test, as directory listings are shared by the whole JVM
+        final File classesDir = new File(testRootDir, "classes-" + System.nanoTime());
+        writeThriftFile(new File(classesDir, "common.thrift"), "struct FromDirectory {}");
+        final File jar = writeJar(new File(testRootDir, "idl.jar"),
+                "idl/jar-only.thrift", "struct JarOnly {}",
+                "idl/common.thrift", "struct FromJar {}");
+        // the jar is needed first, but the directory comes first on the classpath and shadows its common.thrift
+        final File thriftFile = writeThriftFile(new File(sourceDir, "service.thrift"),
+                "include \"jar-only.thrift\"\ninclude \"common.thrift\"\n");
+
+        final ImmutableList<File> thriftPath = mojo.makeMinimalThriftPath(
+                new File(testRootDir, "target/thrift-dependencies"), ImmutableList.of(classesDir, jar),
+                ImmutableSet.of(thriftFile), ImmutableList.of(sourceDir)).asList();
+
+        assertEquals(2, thriftPath.size());
+        assertEquals(classesDir, thriftPath.get(0));
+        assertTrue(new File(thriftPath.get(1), "jar-only.thrift").isFile());
+        assertFalse("the shadowed file was extracted", new File(thriftPath.get(1), "common.thrift").exists());
+        assertEquals(mojo.makeThriftPathFromJars(new File(testRootDir, "target/thrift-dependencies"),
+                ImmutableList.of(classesDir, jar)).asList(), thriftPath);
+    }
+
+    @Test
+    public void testPrecompileWithoutSourceLevelAttachesTheSources() throws Exception {
+        copyIdl();
+        MojoFixtures.setField(mojo, "precompile", true);
+
+        mojo.execute();
+
+        final File outputDir = new File(testRootDir, "target/generated-sources/thrift");
+        assertTrue(new File(outputDir, "tutorial/InvalidOperation.java").isFile());
+        assertEquals(ImmutableList.of(outputDir.getAbsolutePath()), project().getCompileSourceRoots());
+        assertFalse("classes were precompiled", new File(testRootDir, "target/classes").exists());
+    }
+
+    @Test
+    public void testIncrementalBuildWithoutChangesOnlyAttaches() throws Exception {
+        copyIdl();
+        mojo.execute();
+        final File outputDir = new File(testRootDir, "target/generated-sources/thrift");
+        final File invalidOperation = new File(outputDir, "tutorial/InvalidOperation.java");
+        assertTrue(invalidOperation.delete());
+
+        MojoFixtures.setField(mojo, "buildContext", new IncrementalBuildContext(false));
+        mojo.execute();
+
+        assertFalse("thrift was invoked without changes", invalidOperation.exists());
+        assertTrue(project().getCompileSourceRoots().contains(outputDir.getAbsolutePath()));
+    }
+
+    @Test
+    public void testIncrementalBuildRecompilesOnlyTheChangedSources() throws Exception {
+        copyIdl();
+        final File outputDir = new File(testRootDir, "target/generated-sources/thrift");
+        MojoFixtures.setField(mojo, "buildContext", new IncrementalBuildContext(true));
+        mojo.execute();
+        final File sharedStruct = new File(outputDir, "shared/SharedStruct.java");
+        assertTrue(sharedStruct.setLastModified(sharedStruct.lastModified() - 60000));
+        final long lastModified = sharedStruct.lastModified();
+
+        FileUtils.fileAppend(new File(sourceDir, "tutorial.thrift").getPath(), "\nstruct Added {\n  1: i32 id\n}\n");
+        mojo.execute();
+
+        assertTrue(new File(outputDir, "tutorial/Added.java").isFile());
+        assertEquals("unchanged source was recompiled", lastModified, sharedStruct.lastModified());
+
+        // the build context does not change the configuration: the next full build starts from a clean directory
+        final File stray = new File(outputDir, "Stray.java");
+        FileUtils.fileWrite(stray.getPath(), "UTF-8", "class Stray {}");
+        MojoFixtures.setField(mojo, "buildContext", new DefaultBuildContext());
+        mojo.execute();
+        assertFalse("the full build kept a stray file", stray.exists());
+        assertTrue(sharedStruct.lastModified() != lastModified);
+    }
+
+    @Test
+    public void testEveryGeneratorWritesIntoItsOwnDirectory() throws Exception {
+        copyIdl();
+        final File javaDir = new File(testRootDir, "target/generated-sources/thrift");
+        final File hashcodeDir = new File(testRootDir, "target/generated-sources/thrift-hashcode");
+        MojoFixtures.setField(mojo, "generators", new GeneratorTarget[]{
+                new GeneratorTarget("java", javaDir, true),
+                new GeneratorTarget("java:hashcode", hashcodeDir, false)});
+
+        mojo.execute();
+
+        for (File outputDir : ImmutableList.of(javaDir, hashcodeDir)) {
+            assertTrue(new File(outputDir, "tutorial/InvalidOperation.java").isFile());
+            assertTrue(new File(outputDir, "shared/SharedStruct.java").isFile());
+        }
+        assertEquals("only the attached generator is a source root",
+                ImmutableList.of(javaDir.getAbsolutePath()), project().getCompileSourceRoots());
+
+        // a rebuild of one generator leaves the output of the other alone
+        final File stray = new File(hashcodeDir, "Stray.java");
+        FileUtils.fileWrite(stray.getPath(), "UTF-8", "class Stray {}");
+        MojoFixtures.setField(mojo, "generators", new GeneratorTarget[]{new GeneratorTarget("java", javaDir, true)});
+        mojo.execute();
+        assertTrue("the output of another generator was cleaned", stray.isFile());
+    }
+
+    @Test
+    public void testFailureOfOneGeneratorFailsTheBuild() throws Exception {
+        copyIdl();
+        MojoFixtures.setField(mojo, "generators", new GeneratorTarget[]{
+                new GeneratorTarget("java", new File(testRootDir, "target/generated-sources/thrift"), true),
+                new GeneratorTarget("nosuchlanguage", new File(testRootDir, "target/generated-sources/other"), false)});
+
+        try {
+            mojo.execute();
+            fail("the failed generator was ignored");
+        } catch (MojoFailureException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("thrift did not exit cleanly"));
+        }
+        assertEquals("the sources of a failed build were attached",
+                ImmutableList.of(), project().getCompileSourceRoots());
+    }
+
+    @Test
+    public void testSourceRootsAreCompiledTogetherAndAttached() throws Exception {
+        final File idlDir = new File(testRootDir, "idl");
+        FileUtils.copyFile(new File("src/test/resources/idl/tutorial.thrift"), new File(sourceDir, "tutorial.thrift"));
+        // the include of tutorial.thrift resolves in the other source root
+        FileUtils.copyFile(new File("src/test/resources/idl/shared.thrift"), new File(idlDir, "shared.thrift"));
+        writeThriftFile(new File(idlDir, "excluded.thrift"), "namespace java excluded\n\nstruct Excluded {}\n");
+        final SourceRoot idlRoot = new SourceRoot(idlDir);
+        MojoFixtures.setField(idlRoot, "includes", ImmutableSet.of("shared.thrift"));
+        MojoFixtures.setField(mojo, "thriftSourceRoots", new SourceRoot[]{
+                new SourceRoot(sourceDir), idlRoot, new SourceRoot(new File(testRootDir, "missing"))});
+
+        mojo.execute();
+
+        final File outputDir = new File(testRootDir, "target/generated-sources/thrift");
+        assertTrue(new File(outputDir, "tutorial/InvalidOperation.java").isFile());
+        assertTrue(new File(outputDir, "shared/SharedStruct.java").isFile());
+        assertFalse("the includes of the source root were ignored", new File(outputDir, "excluded").exists());
+        assertEquals(ImmutableList.of(outputDir.getAbsolutePath()), project().getCompileSourceRoots());
+        final List<String> resourceDirectories = newArrayList();
+        for (Object resource : project().getResources()) {
+            resourceDirectories.add(((Resource) resource).getDirectory());
+        }
+        assertEquals("every existing source root is a resource directory",
+                ImmutableList.of(sourceDir.getAbsolutePath(), idlDir.getAbsolutePath()), resourceDirectories);
+    }
+
+    @Test
+    public void testRecursiveBuildCompilesNestedIncludesWithTheirRoots() throws Exception {
+        // api/service.thrift includes common/types.thrift through the thrift path, which includes its sibling
+        writeThriftFile(new File(sourceDir, "api/service.thrift"),
+                "include \"common/types.thrift\"\n\nnamespace java api\n\nservice Api {\n  types.Type get()\n}\n");
+        writeThriftFile(new File(sourceDir, "common/types.thrift"),
+                "include \"enums.thrift\"\n\nnamespace java common\n\nstruct Type {\n  1: enums.Kind kind\n}\n");
+        writeThriftFile(new File(sourceDir, "common/enums.thrift"),
+                "namespace java common\n\nenum Kind {\n  ONE = 1\n}\n");
+        writeThriftFile(new File(sourceDir, "standalone.thrift"),
+                "namespace java standalone\n\nstruct Standalone {\n  1: i32 id\n}\n");
+        MojoFixtures.setField(mojo, "recursive", true);
+        MojoFixtures.setField(mojo, "writeReport", true);
+
+        mojo.execute();
+
+        final File outputDir = new File(testRootDir, "target/generated-sources/thrift");
+        assertTrue(new File(outputDir, "api/Api.java").isFile());
+        assertTrue(new File(outputDir, "common/Type.java").isFile());
+        assertTrue(new File(outputDir, "common/Kind.java").isFile());
+        assertTrue(new File(outputDir, "standalone/Standalone.java").isFile());
+        final String report = FileUtils.fileRead(new File(testRootDir, "target/thrift-reports/compile.json"), "UTF-8");
+        assertTrue("the included files were compiled on their own: " + report,
+                report.contains("\"thriftInvocations\": 2"));
+    }
+
+    /**
+     * Copies the test IDL into the source root.
+     */
+    private void copyIdl() throws Exception {
+        FileUtils.copyDirectory(new File("src/test/resources/idl"), sourceDir);
+    }
+
+    private MavenProject project() throws Exception {
+        return (MavenProject) MojoFixtures.getField(mojo, "project");
+    }
+
+    /**
+     * The build context of an IDE, which reports every file as changed, or none.
+     */
+    private static final class IncrementalBuildContext extends DefaultBuildContext {
+        private final boolean changed;
+
+        IncrementalBuildContext(boolean changed) {
+            this.changed = changed;
+        }
+
+        @Override
+        public boolean isIncremental() {
+            return true;
+        }
+
+        @Override
+        public Scanner newScanner(File basedir) {
+            return changed ? super.newScanner(basedir) : super.newDeleteScanner(basedir);
+        }
+
+        @Override
+        public boolean hasDelta(File file) {
+            return changed;
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}
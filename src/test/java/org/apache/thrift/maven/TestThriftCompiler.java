@@ -0,0 +1,75 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestThriftCompiler {
+
+    private File cacheDir;
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        cacheDir = new File(tmpDir, "thrift-compiler-test");
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void testResolveIsCached() throws Exception {
+        final ThriftCompiler compiler = ThriftCompiler.resolve("thrift", cacheDir);
+
+        assertTrue("executable was not resolved", compiler.getExecutable().isAbsolute());
+        assertEquals(Thrift.getVersion("thrift"), compiler.getVersion());
+        assertEquals(BuildState.sha1(compiler.getExecutable()), compiler.getHash());
+        assertEquals("fingerprint was not cached on disk", 1, cacheDir.list().length);
+        assertSame(compiler, ThriftCompiler.resolve("thrift", cacheDir));
+        assertEquals(compiler.getExecutable(), ThriftCompiler.which(compiler.getExecutable().getPath()));
+    }
+
+    @Test
+    public void testMissingExecutable() throws Exception {
+        try {
+            ThriftCompiler.which("thrift-does-not-exist");
+            fail("Expected CommandLineException");
+        } catch (CommandLineException e) {
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (cacheDir.exists()) {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+}
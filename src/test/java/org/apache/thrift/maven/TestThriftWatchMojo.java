@@ -0,0 +1,143 @@
+package org.apache.thrift.maven;
+
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.apache.thrift.maven.MojoFixtures.createMojo;
+import static org.apache.thrift.maven.MojoFixtures.writeThriftFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestThriftWatchMojo {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private File testRootDir;
+    private File sourceDir;
+    private File outputDir;
+    private ThriftWatchMojo mojo;
+    private Thread watcher;
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    @Before
+    public void setup() throws Exception {
+        final File tmpDir = new File(System.getProperty("java.io.tmpdir"));
+        testRootDir = new File(tmpDir, "thrift-watch-mojo-test");
+
+        if (testRootDir.exists()) {
+            FileUtils.cleanDirectory(testRootDir);
+        } else {
+            assertTrue("Failed to create output directory for test: " + testRootDir.getPath(), testRootDir.mkdir());
+        }
+        sourceDir = new File(testRootDir, "src/main/thrift");
+        outputDir = new File(testRootDir, "target/generated-sources/thrift");
+        FileUtils.copyDirectory(new File("src/test/resources/idl"), sourceDir);
+        mojo = createMojo(new ThriftWatchMojo(), testRootDir);
+        MojoFixtures.setField(mojo, "reportFile", new File(testRootDir, "target/thrift-reports/watch.json"));
+        MojoFixtures.setField(mojo, "debounce", 50L);
+    }
+
+    @Test
+    public void testChangedSourceIsRecompiled() throws Exception {
+        startWatching();
+        final File sharedStruct = new File(outputDir, "shared/SharedStruct.java");
+        awaitCompilation(new File(outputDir, "tutorial/InvalidOperation.java"), true);
+        assertTrue(sharedStruct.setLastModified(sharedStruct.lastModified() - 60000));
+        final long lastModified = sharedStruct.lastModified();
+
+        FileUtils.fileAppend(new File(sourceDir, "tutorial.thrift").getPath(), "\nstruct Added {\n  1: i32 id\n}\n");
+
+        awaitCompilation(new File(outputDir, "tutorial/Added.java"), true);
+        assertTrue(new File(outputDir, "tutorial/InvalidOperation.java").isFile());
+        assertEquals("unchanged source was recompiled", lastModified, sharedStruct.lastModified());
+    }
+
+    @Test
+    public void testOutputsOfDeletedSourceAreDeleted() throws Exception {
+        final File extra = writeThriftFile(new File(sourceDir, "nested/extra.thrift"),
+                "namespace java extra\n\nstruct Extra {\n  1: i32 id\n}\n");
+        startWatching();
+        final File extraStruct = new File(outputDir, "extra/Extra.java");
+        awaitCompilation(extraStruct, true);
+
+        assertTrue(extra.delete());
+
+        awaitCompilation(extraStruct, false);
+        assertTrue("outputs of another source were deleted",
+                new File(outputDir, "tutorial/InvalidOperation.java").isFile());
+    }
+
+    /**
+     * Runs the watch on its own thread, until the test interrupts it.
+     */
+    private void startWatching() {
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    mojo.execute();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "thrift-watch");
+        watcher.start();
+    }
+
+    /**
+     * Waits until {@code file} exists or not, and the watch waits for the next change.
+     */
+    private void awaitCompilation(File file, boolean exists) throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (file.exists() != exists || watcher.getState() != Thread.State.WAITING) {
+            assertNull(failure.get());
+            if (!watcher.isAlive()) {
+                fail("the watch stopped");
+            }
+            if (System.currentTimeMillis() > deadline) {
+                fail(file + (exists ? " was not generated" : " was not deleted"));
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    @After
+    public void cleanup() throws Exception {
+        if (watcher != null) {
+            watcher.interrupt();
+            watcher.join(TIMEOUT_MILLIS);
+            assertFalse("the watch did not stop", watcher.isAlive());
+            assertNull(failure.get());
+        }
+        if (testRootDir.exists()) {
+            FileUtils.deleteDirectory(testRootDir);
+        }
+    }
+}